@@ -0,0 +1,65 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.Job;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.guava.GuavaModule;
+import com.fasterxml.jackson.datatype.jsr310.JSR310Module;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a job in the database's binary format, against the JSON it used to be stored as.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryFormatBenchmark {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private Job job;
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        om.registerModule(new JSR310Module());
+        om.registerModule(new GuavaModule());
+        job = Fixtures.job(1);
+        json = om.writeValueAsString(job);
+        binary = BinaryFormat.encode(job).toByteArray();
+    }
+
+    @Benchmark
+    public String encodeJson() throws IOException {
+        return om.writeValueAsString(job);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryFormat.encode(job).toByteArray();
+    }
+
+    @Benchmark
+    public Job decodeJson() throws IOException {
+        return om.readValue(json, Job.class);
+    }
+
+    @Benchmark
+    public Job decodeBinary() throws IOException {
+        return BinaryFormat.decodeJob(new RecordReader(binary));
+    }
+}
@@ -0,0 +1,79 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading jobs back out of a database holding the given number of jobs, and saving one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    @Param({"10000"})
+    public int jobCount;
+
+    private Path directory;
+    private Database db;
+    private Job job;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark-db");
+        db = new Database(directory.resolve("job-database").toString());
+        for (int i = 0; i < jobCount; i++) {
+            db.saveJob(Fixtures.job(i));
+        }
+        job = Fixtures.job(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    @Benchmark
+    public List<Job> jobs() {
+        return db.jobs();
+    }
+
+    @Benchmark
+    public Job getJob() {
+        return db.getJob(String.format("job-%06d", ThreadLocalRandom.current().nextInt(jobCount)));
+    }
+
+    @Benchmark
+    public Job saveJob() {
+        return db.saveJob(job);
+    }
+}
@@ -0,0 +1,46 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.EncodingStatus;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.dacklabs.mp4splicer.model.JobReport;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds realistic jobs for the benchmarks from the probe logs checked in under src/jmh/resources/fixtures.
+ */
+public class Fixtures {
+
+    public static List<String> lines(String fixture) throws IOException {
+        return Resources.readLines(Resources.getResource("fixtures/" + fixture), Charsets.UTF_8);
+    }
+
+    /**
+     * A three-recording job like the ones the server usually sees. Every fourth job is still running, the rest are
+     * done.
+     */
+    public static Job job(int n) throws IOException {
+        InputFileStats hd = InputFileStats.fromLog(lines("probe-wtv.log"));
+        InputFileStats sd = InputFileStats.fromLog(lines("probe-sd.log"));
+        String directory = "\\\\CENTERCOURT\\videotest";
+        Job job = Job.create(String.format("job-%06d", n), "Recording " + n, directory, "recording-" + n + ".mp4",
+                             Arrays.asList(new InputFile(directory + "\\part1.wtv", hd),
+                                           new InputFile(directory + "\\part2.wtv", sd),
+                                           new InputFile(directory + "\\part3.wtv", hd)),
+                             90, 1800, n % 2 == 0 ? EncodingMode.COPY : EncodingMode.REENCODE, EncodeProfile.BALANCED,
+                             JobPriority.NORMAL, 1);
+        job = job.updateOutputStatus(EncodingStatus.ENCODING).encoding();
+        JobReport report = new JobReport(2100, 5400000, 42000, 21600000, 412000, 3L << 32, 1L << 31, 38.25, 44.1,
+                                         12600000);
+        return n % 4 == 0 ? job : job.updateOutputStatus(EncodingStatus.DONE).done(report);
+    }
+}
@@ -0,0 +1,81 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.templateengines.ResourcesJadeTemplateEngine;
+import com.dacklabs.mp4splicer.workers.JobScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import spark.ModelAndView;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serving the first page of the job list at {@code /}: building its model from the database, and rendering it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MainPageBenchmark {
+
+    @Param({"100", "1000"})
+    public int jobCount;
+
+    private Path directory;
+    private Database db;
+    private StatsRegistry statsRegistry;
+    private JobScheduler scheduler;
+    private ResourcesJadeTemplateEngine templateEngine;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark-db");
+        db = new Database(directory.resolve("job-database").toString());
+        for (int i = 0; i < jobCount; i++) {
+            db.saveJob(Fixtures.job(i));
+        }
+        statsRegistry = new StatsRegistry();
+        scheduler = new JobScheduler(1, 1, statsRegistry, false);
+        templateEngine = new ResourcesJadeTemplateEngine();
+        MovieServer.mainPageModel(db, statsRegistry, scheduler, null, 1); // read every job's stats log once, like a warm server
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    @Benchmark
+    public Map<String, Object> buildModel() {
+        return MovieServer.mainPageModel(db, statsRegistry, scheduler, null, 1);
+    }
+
+    @Benchmark
+    public String buildModelAndRender() {
+        return templateEngine.render(new ModelAndView(MovieServer.mainPageModel(db, statsRegistry, scheduler, null, 1),
+                                                      "main"));
+    }
+}
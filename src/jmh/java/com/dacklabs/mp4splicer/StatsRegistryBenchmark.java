@@ -0,0 +1,75 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.EncodingStats;
+import com.dacklabs.mp4splicer.model.Job;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up a job's latest stats, either from a stats log of the given length (jobs that ran before a restart) or
+ * from memory (running jobs).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsRegistryBenchmark {
+
+    @Param({"1000", "100000"})
+    public int statsLines;
+
+    private Path statsFile;
+    private StatsRegistry registry;
+    private Job job;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper om = new ObjectMapper();
+        statsFile = Files.createTempFile("stats", ".log");
+        try (BufferedWriter writer = Files.newBufferedWriter(statsFile, Charsets.UTF_8)) {
+            for (int i = 0; i < statsLines; i++) {
+                writer.write(om.writeValueAsString(new EncodingStats(i * 15, 87, i * 70 + "kB", "00:10:00.00",
+                                                                     "1205.6kbits/s", 0)));
+                writer.newLine();
+            }
+        }
+        job = Fixtures.job(0);
+        registry = new StatsRegistry();
+        registry.update(job.jobID, StatsRegistry.readLastStats(statsFile));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(statsFile);
+    }
+
+    @Benchmark
+    public EncodingStats readLastStats() {
+        return StatsRegistry.readLastStats(statsFile);
+    }
+
+    @Benchmark
+    public EncodingStats latestStatsInMemory() {
+        return registry.latestStats(job);
+    }
+}
@@ -0,0 +1,45 @@
+package com.dacklabs.mp4splicer.ffmpeg;
+
+import com.dacklabs.mp4splicer.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a probe of an HD recording with a lot of Media Center metadata, and of a plainer SD recording.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputFileStatsBenchmark {
+
+    @Param({"probe-wtv.log", "probe-sd.log"})
+    public String fixture;
+
+    private List<String> lines;
+
+    @Setup
+    public void setUp() throws IOException {
+        lines = Fixtures.lines(fixture);
+    }
+
+    @Benchmark
+    public InputFileStats fromLog() {
+        return InputFileStats.fromLog(lines);
+    }
+}
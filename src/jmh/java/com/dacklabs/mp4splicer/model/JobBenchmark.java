@@ -0,0 +1,42 @@
+package com.dacklabs.mp4splicer.model;
+
+import com.dacklabs.mp4splicer.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress calculation for a running three-input job, which the job list and progress events do for every job.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobBenchmark {
+
+    private Job job;
+    private EncodingStats stats;
+
+    @Setup
+    public void setUp() throws IOException {
+        job = Fixtures.job(0);
+        stats = new EncodingStats(123456, 87, "1048576kB", "01:08:35.20", "2048.0kbits/s", 0);
+    }
+
+    @Benchmark
+    public double percentComplete() {
+        return job.percentComplete(stats);
+    }
+}
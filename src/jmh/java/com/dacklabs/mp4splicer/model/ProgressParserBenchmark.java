@@ -0,0 +1,91 @@
+package com.dacklabs.mp4splicer.model;
+
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.Optional;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old regex based progress parsing with {@link ProgressParser}, both for a single progress line and for
+ * a whole stderr stream the way {@code FFMpegLogWatcher} reads it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressParserBenchmark {
+    private static final String PROGRESS_LINE =
+            "frame=21345 fps= 87 q=28.0 size=  104857kB time=00:11:52.35 bitrate=1205.6kbits/s dup=0 drop=3    ";
+    private static final String HEADER =
+            "ffmpeg version N-74082-g5a1a1d6 Copyright (c) 2000-2015 the FFmpeg developers\n" +
+            "Input #0, wtv, from 'Wimbledon Final.wtv':\n" +
+            "  Duration: 01:00:00.00, start: 0.000000, bitrate: 12000 kb/s\n" +
+            "    Stream #0:0[0x1]: Audio: ac3, 48000 Hz, stereo, fltp, 384 kb/s\n" +
+            "    Stream #0:1[0x2]: Video: mpeg2video (Main), yuv420p(tv), 1920x1080, 29.97 fps\n" +
+            "Press [q] to stop, [?] for help\n";
+    private static final int PROGRESS_LINES = 5000;
+
+    private byte[] lineBytes;
+    private byte[] stderr;
+    private ProgressParser parser;
+
+    @Setup
+    public void setUp() {
+        lineBytes = PROGRESS_LINE.getBytes(Charsets.US_ASCII);
+        StringBuilder log = new StringBuilder(HEADER);
+        for (int i = 1; i <= PROGRESS_LINES; i++) {
+            log.append(String.format("frame=%5d fps= 87 q=28.0 size=  %6dkB time=00:%02d:%02d.%02d " +
+                                             "bitrate=1205.6kbits/s    \r", i * 15, i * 70, i / 120, (i / 2) % 60,
+                                     i % 100));
+        }
+        log.append("\nvideo:2048000kB audio:84000kB subtitle:0kB other streams:0kB global headers:0kB\n");
+        stderr = log.toString().getBytes(Charsets.US_ASCII);
+        parser = new ProgressParser();
+    }
+
+    @Benchmark
+    public Optional<EncodingStats> statsMatcherLine() {
+        return StatsMatcher.match(PROGRESS_LINE);
+    }
+
+    @Benchmark
+    public EncodingStats progressParserLine() {
+        return parser.parse(lineBytes, 0, lineBytes.length);
+    }
+
+    @Benchmark
+    public void scannerStream(Blackhole blackhole) {
+        Scanner scanner = new Scanner(new ByteArrayInputStream(stderr));
+        while (scanner.hasNextLine()) {
+            blackhole.consume(StatsMatcher.match(scanner.nextLine()));
+        }
+    }
+
+    @Benchmark
+    public EncodingStats progressParserStream() {
+        ProgressParser streamParser = new ProgressParser();
+        ByteArrayInputStream in = new ByteArrayInputStream(stderr);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+            streamParser.accept(buffer, 0, read);
+        }
+        streamParser.finish();
+        return streamParser.stats();
+    }
+}
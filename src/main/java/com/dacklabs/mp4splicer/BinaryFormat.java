@@ -0,0 +1,479 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.ffmpeg.AudioStream;
+import com.dacklabs.mp4splicer.ffmpeg.CachedProbe;
+import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
+import com.dacklabs.mp4splicer.ffmpeg.VideoStream;
+import com.dacklabs.mp4splicer.model.CompletedSegment;
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.EncodingStatus;
+import com.dacklabs.mp4splicer.model.FFMPEGFile;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.dacklabs.mp4splicer.model.JobReport;
+import com.dacklabs.mp4splicer.model.JobStatus;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The on-disk format for jobs and cached probes. Each value is a {@link RecordWriter} record behind a small header:
+ * <pre>
+ *     0 (1 byte) | format version (1 byte) | record length (4 bytes) | record
+ * </pre>
+ * Values from before this format were JSON written with MapDB's {@link DataOutput#writeUTF}, which starts with the
+ * string's length as a packed int. JSON is never empty, so a leading 0 can only be the new format. {@link #read}
+ * still understands the old values, and {@link Database} rewrites them on open.
+ * <p>
+ * Field numbers must never be reused. New fields just get the next free number; old versions skip them and new
+ * versions see them as missing (null) in old records. Likewise an enum constant an old version doesn't have is read
+ * as a sensible default rather than failing the whole value.
+ */
+final class BinaryFormat {
+    static final int VERSION = 1;
+    private static final int MARKER = 0;
+
+    interface Decoder<T> {
+        T decode(RecordReader reader) throws IOException;
+    }
+
+    interface LegacyDecoder<T> {
+        T decode(String json) throws IOException;
+    }
+
+    static void write(DataOutput out, RecordWriter record) throws IOException {
+        byte[] bytes = record.toByteArray();
+        out.writeByte(MARKER);
+        out.writeByte(VERSION);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static <T> T read(DataInput in, Decoder<T> decoder, LegacyDecoder<T> legacyDecoder) throws IOException {
+        int first = in.readUnsignedByte();
+        if (first != MARKER) {
+            return legacyDecoder.decode(readLegacyString(in, first));
+        }
+        int version = in.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("Stored with format version " + version + ", this version only reads up to " +
+                                          VERSION);
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return decoder.decode(new RecordReader(bytes));
+    }
+
+    /**
+     * Reads the rest of a string written by MapDB's writeUTF: a packed length followed by one packed int per char.
+     */
+    private static String readLegacyString(DataInput in, int firstByte) throws IOException {
+        int length = unpackInt(in, firstByte);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) unpackInt(in, in.readUnsignedByte());
+        }
+        return new String(chars);
+    }
+
+    private static int unpackInt(DataInput in, int firstByte) throws IOException {
+        int value = firstByte & 0x7F;
+        int b = firstByte;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("Malformed packed int");
+            }
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    static RecordWriter encode(Job job) {
+        RecordWriter w = new RecordWriter();
+        w.writeString(1, job.jobID);
+        w.writeString(2, job.name);
+        w.writeString(3, job.directory);
+        if (job.outputPath != null) {
+            int output = w.startRecord(4);
+            w.writeString(1, job.outputPath.path);
+            w.writeEnum(2, job.outputPath.encodingStatus);
+            w.endRecord(output);
+        }
+        w.writeInteger(5, job.startTrimTimeSeconds);
+        w.writeInteger(6, job.endTrimTimeSeconds);
+        w.writeEnum(7, job.status);
+        for (InputFile input : job.inputPaths) {
+            int record = w.startRecord(8);
+            w.writeString(1, input.path);
+            if (input.stats != null) {
+                int stats = w.startRecord(2);
+                encode(w, input.stats);
+                w.endRecord(stats);
+            }
+            w.endRecord(record);
+        }
+        encode(w, 9, job.createDate);
+        encode(w, 10, job.endDate);
+        w.writeBoolean(11, job.mode.copiesVideo()); // what versions from before field 16 called "goFast"
+        w.writeEnum(12, job.priority);
+        w.writeString(13, job.error);
+        w.writeLong(14, job.segmentCount);
+        for (CompletedSegment segment : job.completedSegments) {
+            int record = w.startRecord(15);
+            w.writeString(1, segment.inputPath);
+            w.writeSignedLong(2, segment.startMillis);
+            if (segment.durationMillis != null) {
+                w.writeSignedLong(3, segment.durationMillis);
+            }
+            w.writeLong(4, segment.frames);
+            w.writeString(5, segment.file);
+            w.endRecord(record);
+        }
+        w.writeEnum(16, job.mode);
+        if (job.report != null) {
+            int record = w.startRecord(17);
+            encode(w, job.report);
+            w.endRecord(record);
+        }
+        w.writeEnum(18, job.profile);
+        return w;
+    }
+
+    static Job decodeJob(RecordReader r) throws IOException {
+        String jobID = null;
+        String name = null;
+        String directory = null;
+        FFMPEGFile outputPath = null;
+        Integer startTrim = null;
+        Integer endTrim = null;
+        JobStatus status = null;
+        List<InputFile> inputPaths = new ArrayList<>();
+        LocalDateTime createDate = null;
+        LocalDateTime endDate = null;
+        boolean goFast = false;
+        EncodingMode mode = null;
+        JobPriority priority = null;
+        String error = null;
+        int segmentCount = 1;
+        List<CompletedSegment> completedSegments = new ArrayList<>();
+        JobReport report = null;
+        EncodeProfile profile = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: jobID = r.readString(); break;
+                case 2: name = r.readString(); break;
+                case 3: directory = r.readString(); break;
+                case 4: outputPath = decodeOutput(r.readRecord()); break;
+                case 5: startTrim = r.readInteger(); break;
+                case 6: endTrim = r.readInteger(); break;
+                case 7: status = r.readEnum(JobStatus.class, JobStatus.FAILED); break; // never rerun it
+                case 8: inputPaths.add(decodeInput(r.readRecord())); break;
+                case 9: createDate = decodeDateTime(r.readRecord()); break;
+                case 10: endDate = decodeDateTime(r.readRecord()); break;
+                case 11: goFast = r.readBoolean(); break;
+                case 12: priority = r.readEnum(JobPriority.class, JobPriority.NORMAL); break;
+                case 13: error = r.readString(); break;
+                case 14: segmentCount = (int) r.readLong(); break;
+                case 15: completedSegments.add(decodeSegment(r.readRecord())); break;
+                case 16: mode = r.readEnum(EncodingMode.class, EncodingMode.REENCODE); break;
+                case 17: report = decodeReport(r.readRecord()); break;
+                case 18: profile = r.readEnum(EncodeProfile.class, EncodeProfile.BALANCED); break;
+                default: r.skip();
+            }
+        }
+        if (mode == null) {
+            mode = goFast ? EncodingMode.COPY : EncodingMode.REENCODE;
+        }
+        return new Job(jobID, createDate, endDate, name, directory, outputPath, status, inputPaths, startTrim,
+                       endTrim, mode, priority, error, segmentCount, completedSegments, report,
+                       profile);
+    }
+
+    static RecordWriter encode(CachedProbe probe) {
+        RecordWriter w = new RecordWriter();
+        w.writeString(1, probe.path);
+        w.writeSignedLong(2, probe.size);
+        w.writeSignedLong(3, probe.lastModified);
+        if (probe.stats != null) {
+            int stats = w.startRecord(4);
+            encode(w, probe.stats);
+            w.endRecord(stats);
+        }
+        return w;
+    }
+
+    static CachedProbe decodeCachedProbe(RecordReader r) throws IOException {
+        String path = null;
+        long size = 0;
+        long lastModified = 0;
+        InputFileStats stats = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: path = r.readString(); break;
+                case 2: size = r.readSignedLong(); break;
+                case 3: lastModified = r.readSignedLong(); break;
+                case 4: stats = decodeStats(r.readRecord()); break;
+                default: r.skip();
+            }
+        }
+        return new CachedProbe(path, size, lastModified, stats);
+    }
+
+    private static FFMPEGFile decodeOutput(RecordReader r) throws IOException {
+        String path = null;
+        EncodingStatus encodingStatus = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: path = r.readString(); break;
+                case 2: encodingStatus = r.readEnum(EncodingStatus.class, EncodingStatus.WAITING); break;
+                default: r.skip();
+            }
+        }
+        return new FFMPEGFile(path, encodingStatus);
+    }
+
+    private static InputFile decodeInput(RecordReader r) throws IOException {
+        String path = null;
+        InputFileStats stats = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: path = r.readString(); break;
+                case 2: stats = decodeStats(r.readRecord()); break;
+                default: r.skip();
+            }
+        }
+        return new InputFile(path, stats);
+    }
+
+    private static void encode(RecordWriter w, InputFileStats stats) {
+        w.writeSignedLong(1, stats.inputNumber);
+        w.writeString(2, stats.fileName);
+        if (stats.metadata != null) {
+            for (Map.Entry<String, String> entry : stats.metadata.entrySet()) {
+                int record = w.startRecord(3);
+                w.writeString(1, entry.getKey());
+                w.writeString(2, entry.getValue());
+                w.endRecord(record);
+            }
+        }
+        if (stats.audioStreams != null) {
+            for (AudioStream audio : stats.audioStreams) {
+                int record = w.startRecord(4);
+                w.writeSignedLong(1, audio.streamNumber);
+                w.writeString(2, audio.codec);
+                w.writeSignedLong(3, audio.hz);
+                w.writeSignedLong(4, audio.bitrate);
+                w.writeString(5, audio.layout);
+                w.endRecord(record);
+            }
+        }
+        if (stats.videoStreams != null) {
+            for (VideoStream video : stats.videoStreams) {
+                int record = w.startRecord(5);
+                w.writeSignedLong(1, video.streamNumber);
+                w.writeString(2, video.codec);
+                w.writeString(3, video.resolution);
+                w.writeString(4, video.fps != null ? video.fps.toString() : null);
+                w.endRecord(record);
+            }
+        }
+        if (stats.duration != null) {
+            int duration = w.startRecord(6);
+            w.writeSignedLong(1, stats.duration.getSeconds());
+            w.writeLong(2, stats.duration.getNano());
+            w.endRecord(duration);
+        }
+        w.writeSignedLong(7, stats.bitrate);
+    }
+
+    private static InputFileStats decodeStats(RecordReader r) throws IOException {
+        int inputNumber = -1;
+        String fileName = null;
+        ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+        ImmutableList.Builder<AudioStream> audioStreams = ImmutableList.builder();
+        ImmutableList.Builder<VideoStream> videoStreams = ImmutableList.builder();
+        Duration duration = null;
+        int bitrate = -1;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: inputNumber = r.readInteger(); break;
+                case 2: fileName = r.readString(); break;
+                case 3: decodeMetadataEntry(r.readRecord(), metadata); break;
+                case 4: audioStreams.add(decodeAudio(r.readRecord())); break;
+                case 5: videoStreams.add(decodeVideo(r.readRecord())); break;
+                case 6: duration = decodeDuration(r.readRecord()); break;
+                case 7: bitrate = r.readInteger(); break;
+                default: r.skip();
+            }
+        }
+        return new InputFileStats(inputNumber, fileName, metadata.build(), audioStreams.build(), videoStreams.build(),
+                                  duration, bitrate);
+    }
+
+    private static void decodeMetadataEntry(RecordReader r, ImmutableMap.Builder<String, String> metadata)
+            throws IOException {
+        String key = null;
+        String value = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: key = r.readString(); break;
+                case 2: value = r.readString(); break;
+                default: r.skip();
+            }
+        }
+        if (key != null && value != null) {
+            metadata.put(key, value);
+        }
+    }
+
+    private static AudioStream decodeAudio(RecordReader r) throws IOException {
+        int streamNumber = 0;
+        String codec = null;
+        int hz = 0;
+        int bitrate = 0;
+        String layout = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: streamNumber = r.readInteger(); break;
+                case 2: codec = r.readString(); break;
+                case 3: hz = r.readInteger(); break;
+                case 4: bitrate = r.readInteger(); break;
+                case 5: layout = r.readString(); break;
+                default: r.skip();
+            }
+        }
+        return new AudioStream(streamNumber, codec, hz, bitrate, layout);
+    }
+
+    private static VideoStream decodeVideo(RecordReader r) throws IOException {
+        int streamNumber = 0;
+        String codec = null;
+        String resolution = null;
+        BigDecimal fps = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: streamNumber = r.readInteger(); break;
+                case 2: codec = r.readString(); break;
+                case 3: resolution = r.readString(); break;
+                case 4: fps = new BigDecimal(r.readString()); break;
+                default: r.skip();
+            }
+        }
+        return new VideoStream(streamNumber, codec, resolution, fps);
+    }
+
+    private static CompletedSegment decodeSegment(RecordReader r) throws IOException {
+        String inputPath = null;
+        long startMillis = 0;
+        Long durationMillis = null;
+        int frames = 0;
+        String file = null;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: inputPath = r.readString(); break;
+                case 2: startMillis = r.readSignedLong(); break;
+                case 3: durationMillis = r.readSignedLong(); break;
+                case 4: frames = (int) r.readLong(); break;
+                case 5: file = r.readString(); break;
+                default: r.skip();
+            }
+        }
+        return new CompletedSegment(inputPath, startMillis, durationMillis, frames, file);
+    }
+
+    /**
+     * The fps figures are stored in hundredths, since records only hold whole numbers.
+     */
+    private static void encode(RecordWriter w, JobReport report) {
+        w.writeLong(1, report.probeMillis);
+        w.writeLong(2, report.encodeMillis);
+        w.writeLong(3, report.concatMillis);
+        w.writeLong(4, report.cpuMillis);
+        w.writeLong(5, report.peakRssKb);
+        w.writeLong(6, report.inputBytes);
+        w.writeLong(7, report.outputBytes);
+        w.writeLong(8, Math.round(report.averageFps * 100));
+        w.writeLong(9, Math.round(report.p95Fps * 100));
+        w.writeLong(10, report.mediaMillis);
+    }
+
+    private static JobReport decodeReport(RecordReader r) throws IOException {
+        long probeMillis = 0;
+        long encodeMillis = 0;
+        long concatMillis = 0;
+        long cpuMillis = 0;
+        long peakRssKb = 0;
+        long inputBytes = 0;
+        long outputBytes = 0;
+        double averageFps = 0;
+        double p95Fps = 0;
+        long mediaMillis = 0;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: probeMillis = r.readLong(); break;
+                case 2: encodeMillis = r.readLong(); break;
+                case 3: concatMillis = r.readLong(); break;
+                case 4: cpuMillis = r.readLong(); break;
+                case 5: peakRssKb = r.readLong(); break;
+                case 6: inputBytes = r.readLong(); break;
+                case 7: outputBytes = r.readLong(); break;
+                case 8: averageFps = r.readLong() / 100.0; break;
+                case 9: p95Fps = r.readLong() / 100.0; break;
+                case 10: mediaMillis = r.readLong(); break;
+                default: r.skip();
+            }
+        }
+        return new JobReport(probeMillis, encodeMillis, concatMillis, cpuMillis, peakRssKb, inputBytes, outputBytes,
+                             averageFps, p95Fps, mediaMillis);
+    }
+
+    private static void encode(RecordWriter w, int tag, LocalDateTime dateTime) {
+        if (dateTime == null) {
+            return;
+        }
+        int record = w.startRecord(tag);
+        w.writeSignedLong(1, dateTime.toLocalDate().toEpochDay());
+        w.writeLong(2, dateTime.toLocalTime().toNanoOfDay());
+        w.endRecord(record);
+    }
+
+    private static LocalDateTime decodeDateTime(RecordReader r) throws IOException {
+        long epochDay = 0;
+        long nanoOfDay = 0;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: epochDay = r.readSignedLong(); break;
+                case 2: nanoOfDay = r.readLong(); break;
+                default: r.skip();
+            }
+        }
+        return LocalDateTime.of(LocalDate.ofEpochDay(epochDay), LocalTime.ofNanoOfDay(nanoOfDay));
+    }
+
+    private static Duration decodeDuration(RecordReader r) throws IOException {
+        long seconds = 0;
+        long nanos = 0;
+        while (r.next()) {
+            switch (r.tag()) {
+                case 1: seconds = r.readSignedLong(); break;
+                case 2: nanos = r.readLong(); break;
+                default: r.skip();
+            }
+        }
+        return Duration.ofSeconds(seconds, nanos);
+    }
+}
@@ -1,96 +1,407 @@
 package com.dacklabs.mp4splicer;
 
-import com.dacklabs.mp4splicer.model.EncodingStats;
+import com.dacklabs.mp4splicer.ffmpeg.CachedProbe;
+import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
+import com.dacklabs.mp4splicer.metrics.Histogram;
+import com.dacklabs.mp4splicer.metrics.Metrics;
+import com.dacklabs.mp4splicer.model.EncodingMode;
 import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobStatus;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
 import com.fasterxml.jackson.datatype.jsr310.JSR310Module;
-import com.google.common.base.Charsets;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import org.mapdb.Atomic;
+import org.mapdb.BTreeKeySerializer;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
+import org.mapdb.Fun;
 import org.mapdb.HTreeMap;
 import org.mapdb.Serializer;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 public class Database {
 
+    private static final long MAX_CACHED_PROBES = 10000;
+    private static final long CACHED_PROBE_EXPIRY_DAYS = 180;
+
+    /**
+     * Saves are committed together in the background at most this long after they're made, rather than each paying
+     * for its own commit. A job reaching a final status is committed before saveJob returns.
+     */
+    private static final long COMMIT_INTERVAL_MILLIS = 250;
+    private static final int MAX_UNCOMMITTED_SAVES = 100;
+    private static final Histogram COMMIT_SECONDS =
+            Metrics.histogram("database_commit_seconds", "Time taken to write saved jobs and probes to disk",
+                              new double[]{0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5});
+
     private final DB db;
+    /**
+     * Every job, kept in memory so the web pages and workers never have to go to disk to read one. Jobs are immutable,
+     * so readers just take whatever snapshot is in the map; saves replace it at the same time as they write to MapDB.
+     */
+    private final ConcurrentHashMap<String, Job> jobCache = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> jobListeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "database-commit");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int uncommittedSaves = 0; // guarded by this
 
     public Database(String databasePath) {
         db = DBMaker.newFileDB(new File(databasePath)).make();
         db.createHashMap("jobs").valueSerializer(new JobSerializer()).makeOrGet();
+        db.createHashMap("probes").valueSerializer(new CachedProbeSerializer())
+          .expireMaxSize(MAX_CACHED_PROBES)
+          .expireAfterAccess(CACHED_PROBE_EXPIRY_DAYS, TimeUnit.DAYS)
+          .makeOrGet();
+        db.createHashMap("library").valueSerializer(new CachedProbeSerializer()).makeOrGet();
+        migrateToBinaryFormat();
+        discardOutdatedProbes();
+        HTreeMap<String, Job> jobs = db.getHashMap("jobs");
+        jobCache.putAll(jobs);
+        if (!db.exists("jobsByStatus")) {
+            db.createTreeSet("jobsByStatus").serializer(BTreeKeySerializer.TUPLE3).make();
+            db.createHashMap("jobIndexKeys").makeOrGet();
+            rebuildJobIndex();
+        }
+        committer.scheduleWithFixedDelay(this::commit, COMMIT_INTERVAL_MILLIS, COMMIT_INTERVAL_MILLIS,
+                                         TimeUnit.MILLISECONDS);
     }
 
-    public Job getJob(String jobID) {
+    /**
+     * Rewrites every job and cached probe that's still stored as JSON. The serializers read both formats, so reading
+     * and saving each value is all it takes.
+     */
+    private void migrateToBinaryFormat() {
+        Atomic.Integer formatVersion = db.getAtomicInteger("formatVersion");
+        if (formatVersion.get() >= BinaryFormat.VERSION) {
+            return;
+        }
         HTreeMap<String, Job> jobs = db.getHashMap("jobs");
-        return jobs.get(jobID);
+        for (String jobID : Lists.newArrayList(jobs.keySet())) {
+            jobs.put(jobID, jobs.get(jobID));
+        }
+        HTreeMap<String, CachedProbe> probes = db.getHashMap("probes");
+        for (String path : Lists.newArrayList(probes.keySet())) {
+            probes.put(path, probes.get(path));
+        }
+        formatVersion.set(BinaryFormat.VERSION);
+        db.commit();
+        System.out.println("Converted " + jobs.size() + " jobs and " + probes.size() + " cached probes to format " +
+                                   "version " + BinaryFormat.VERSION);
+    }
+
+    /**
+     * Drops cached probes and library entries that were parsed by an older {@link InputFileStats#fromLog}. The
+     * library is rescanned at startup, so its recordings are probed again straight away.
+     */
+    private void discardOutdatedProbes() {
+        Atomic.Integer parserVersion = db.getAtomicInteger("probeParserVersion");
+        if (parserVersion.get() >= InputFileStats.PARSER_VERSION) {
+            return;
+        }
+        int discarded = db.getHashMap("probes").size() + db.getHashMap("library").size();
+        db.getHashMap("probes").clear();
+        db.getHashMap("library").clear();
+        parserVersion.set(InputFileStats.PARSER_VERSION);
+        db.commit();
+        System.out.println("Discarded " + discarded + " probes made by an older version");
+    }
+
+    /**
+     * Indexes jobs by status and then newest first, so a page of the job list only has to read the jobs on it.
+     * {@code jobIndexKeys} remembers each job's current index entry so it can be replaced when the job changes.
+     */
+    private void rebuildJobIndex() {
+        NavigableSet<Fun.Tuple3<String, Long, String>> index = db.getTreeSet("jobsByStatus");
+        HTreeMap<String, Fun.Tuple3<String, Long, String>> indexKeys = db.getHashMap("jobIndexKeys");
+        index.clear();
+        indexKeys.clear();
+        for (Job job : jobs()) {
+            Fun.Tuple3<String, Long, String> key = indexKey(job);
+            index.add(key);
+            indexKeys.put(job.jobID, key);
+        }
+        db.commit();
+        System.out.println("Indexed " + indexKeys.size() + " jobs");
+    }
+
+    private static Fun.Tuple3<String, Long, String> indexKey(Job job) {
+        long created = job.createDate != null ? job.createDate.toInstant(ZoneOffset.UTC).toEpochMilli() : 0;
+        return Fun.t3(job.status.name(), -created, job.jobID); // negated so the newest job comes first
+    }
+
+    private synchronized void updateJobIndex(String jobID, Job job) {
+        NavigableSet<Fun.Tuple3<String, Long, String>> index = db.getTreeSet("jobsByStatus");
+        HTreeMap<String, Fun.Tuple3<String, Long, String>> indexKeys = db.getHashMap("jobIndexKeys");
+        Fun.Tuple3<String, Long, String> newKey = job != null ? indexKey(job) : null;
+        Fun.Tuple3<String, Long, String> oldKey = indexKeys.get(jobID);
+        if (Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        if (oldKey != null) {
+            index.remove(oldKey);
+        }
+        if (newKey != null) {
+            index.add(newKey);
+            indexKeys.put(jobID, newKey);
+        } else {
+            indexKeys.remove(jobID);
+        }
+    }
+
+    /**
+     * @param listener called with the job ID whenever a job is saved or deleted
+     */
+    public void addJobListener(Consumer<String> listener) {
+        jobListeners.add(listener);
+    }
+
+    public Job getJob(String jobID) {
+        return jobCache.get(jobID);
     }
 
     public List<Job> jobs() {
-        HTreeMap<String, Job> jobs = db.getHashMap("jobs");
-        return Lists.newArrayList(jobs.values());
+        return Lists.newArrayList(jobCache.values());
+    }
+
+    /**
+     * A page of the jobs with the given statuses, in {@link Job#COMPARATOR} order. Finding where the page starts walks
+     * the index, not the jobs.
+     */
+    public List<Job> jobs(Set<JobStatus> statuses, int offset, int limit) {
+        List<Job> page = new ArrayList<>();
+        Iterator<Fun.Tuple3<String, Long, String>> keys = indexKeysInOrder(statuses);
+        for (int i = 0; keys.hasNext() && page.size() < limit; i++) {
+            Fun.Tuple3<String, Long, String> key = keys.next();
+            if (i >= offset) {
+                Job job = jobCache.get(key.c);
+                if (job != null) {
+                    page.add(job);
+                }
+            }
+        }
+        return page;
+    }
+
+    public int countJobs(Set<JobStatus> statuses) {
+        int count = 0;
+        for (JobStatus status : statuses) {
+            count += jobsWithStatus(status).size();
+        }
+        return count;
+    }
+
+    /**
+     * Merges the per-status runs of the index into the same order as {@link Job#COMPARATOR}.
+     */
+    private Iterator<Fun.Tuple3<String, Long, String>> indexKeysInOrder(Set<JobStatus> statuses) {
+        Comparator<Fun.Tuple3<String, Long, String>> order =
+                Comparator.comparing((Fun.Tuple3<String, Long, String> key) -> statusSortOf(key))
+                          .thenComparing(key -> key.b)
+                          .thenComparing(key -> key.c);
+        List<Iterator<Fun.Tuple3<String, Long, String>>> runs = new ArrayList<>();
+        for (JobStatus status : statuses) {
+            runs.add(jobsWithStatus(status).iterator());
+        }
+        return Iterators.mergeSorted(runs, order);
+    }
+
+    private static int statusSortOf(Fun.Tuple3<String, Long, String> indexKey) {
+        return -Job.statusSort(JobStatus.valueOf(indexKey.a)); // higher sorts first
     }
 
+    private NavigableSet<Fun.Tuple3<String, Long, String>> jobsWithStatus(JobStatus status) {
+        NavigableSet<Fun.Tuple3<String, Long, String>> index = db.getTreeSet("jobsByStatus");
+        @SuppressWarnings({"unchecked", "rawtypes"}) // HI sorts after everything, so it can't be typed
+        Fun.Tuple3<String, Long, String> last = (Fun.Tuple3) Fun.t3(status.name(), Fun.HI, Fun.HI);
+        return index.subSet(Fun.t3(status.name(), null, null), true, last, true);
+    }
+
+    /**
+     * Saves the job, visible to readers straight away. It is written to disk with the next group commit, unless the
+     * job has finished (done, canceled or failed), in which case it is on disk by the time this returns.
+     */
     public Job saveJob(Job job) {
+        synchronized (this) {
+            put(job);
+        }
+        notifyJobListeners(job.jobID);
+        return job;
+    }
+
+    /**
+     * Saves a change to a job that hasn't finished yet. The change is made to the job as it was last saved, not to a
+     * snapshot read earlier, so a cancel or delete made in the meantime is never overwritten.
+     *
+     * @return the saved job, or null if the job has been deleted or has already finished
+     */
+    public Job updateUnfinishedJob(String jobID, UnaryOperator<Job> change) {
+        Job job;
+        synchronized (this) {
+            Job latest = jobCache.get(jobID);
+            if (latest == null || latest.status.isFinal()) {
+                return null;
+            }
+            job = change.apply(latest);
+            put(job);
+        }
+        notifyJobListeners(jobID);
+        return job;
+    }
+
+    private synchronized void put(Job job) {
         HTreeMap<String, Job> jobs = db.getHashMap("jobs");
         jobs.put(job.jobID, job);
-        db.commit();
-        return job;
+        jobCache.put(job.jobID, job);
+        updateJobIndex(job.jobID, job);
+        uncommittedSaves++;
+        if (job.status.isFinal() || uncommittedSaves >= MAX_UNCOMMITTED_SAVES) {
+            commit();
+        }
     }
 
     public void deleteJob(String jobID) {
-        db.getHashMap("jobs").remove(jobID);
-        db.commit();
+        synchronized (this) {
+            db.getHashMap("jobs").remove(jobID);
+            jobCache.remove(jobID);
+            updateJobIndex(jobID, null);
+            uncommittedSaves++;
+            commit();
+        }
+        notifyJobListeners(jobID);
     }
 
-    public List<EncodingStats> getJobStats(Job job) {
-        return getStatsFromLog(Paths.get(job.jobStatsFile()));
+    /**
+     * Writes every save made so far to disk.
+     */
+    public synchronized void commit() {
+        if (uncommittedSaves == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        db.commit();
+        COMMIT_SECONDS.observeSince(start);
+        uncommittedSaves = 0;
     }
 
-    private List<EncodingStats> getStatsFromLog(Path logFile) {
-        ObjectMapper om = new ObjectMapper();
-        try {
-            return Files.lines(logFile, Charsets.UTF_8).map(line -> {
-                try {
-                    return om.readValue(line, EncodingStats.class);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                return null;
-            }).collect(Collectors.toList());
-        } catch (NoSuchFileException nsfe) {
-            // do nothing, this is normal
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void notifyJobListeners(String jobID) {
+        for (Consumer<String> listener : jobListeners) {
+            listener.accept(jobID);
         }
-        return new ArrayList<>();
     }
 
-    private static class JobSerializer implements Serializable, Serializer<Job> {
+    public Optional<CachedProbe> getCachedProbe(String canonicalPath) {
+        HTreeMap<String, CachedProbe> probes = db.getHashMap("probes");
+        return Optional.ofNullable(probes.get(canonicalPath));
+    }
 
-        private static final ObjectMapper om = new ObjectMapper();
-        static {
-            om.registerModule(new JSR310Module());
-            om.registerModule(new GuavaModule());
-        }
+    public synchronized void saveCachedProbe(CachedProbe probe) {
+        HTreeMap<String, CachedProbe> probes = db.getHashMap("probes");
+        probes.put(probe.path, probe);
+        uncommittedSaves++; // losing a probe in a crash only means probing the file again
+    }
+
+    public synchronized void invalidateCachedProbe(String canonicalPath) {
+        db.getHashMap("probes").remove(canonicalPath);
+        uncommittedSaves++;
+    }
+
+    /**
+     * @return every recording in the library index, keyed by absolute path, with its size and modification time when
+     * it was last probed
+     */
+    public List<CachedProbe> libraryEntries() {
+        HTreeMap<String, CachedProbe> library = db.getHashMap("library");
+        return Lists.newArrayList(library.values());
+    }
+
+    public synchronized void saveLibraryEntry(CachedProbe entry) {
+        HTreeMap<String, CachedProbe> library = db.getHashMap("library");
+        library.put(entry.path, entry);
+        uncommittedSaves++; // the library is rescanned at startup, so a lost entry is found again
+    }
+
+    public synchronized void removeLibraryEntry(String path) {
+        db.getHashMap("library").remove(path);
+        uncommittedSaves++;
+    }
+
+    public synchronized void close() {
+        committer.shutdown();
+        commit();
+        db.close();
+    }
+
+    private static final ObjectMapper om = new ObjectMapper();
+    static {
+        om.registerModule(new JSR310Module());
+        om.registerModule(new GuavaModule());
+    }
+
+    private static class JobSerializer implements Serializable, Serializer<Job> {
 
         @Override
         public void serialize(DataOutput out, Job job) throws IOException {
-            out.writeUTF(om.writeValueAsString(job));
+            BinaryFormat.write(out, BinaryFormat.encode(job));
         }
 
         @Override
         public Job deserialize(DataInput in, int available) throws IOException {
-            return om.readValue(in.readUTF(), Job.class);
+            return BinaryFormat.read(in, BinaryFormat::decodeJob, JobSerializer::decodeLegacyJob);
+        }
+
+        /**
+         * JSON jobs still say whether they were stream copies with "goFast", rather than giving their mode.
+         */
+        private static Job decodeLegacyJob(String json) throws IOException {
+            ObjectNode tree = (ObjectNode) om.readTree(json);
+            JsonNode goFast = tree.remove("goFast");
+            if (goFast != null && !tree.has("mode")) {
+                tree.put("mode", (goFast.asBoolean() ? EncodingMode.COPY : EncodingMode.REENCODE).name());
+            }
+            return om.treeToValue(tree, Job.class);
+        }
+
+        @Override
+        public int fixedSize() {
+            return -1;
+        }
+    }
+
+    private static class CachedProbeSerializer implements Serializable, Serializer<CachedProbe> {
+
+        @Override
+        public void serialize(DataOutput out, CachedProbe probe) throws IOException {
+            BinaryFormat.write(out, BinaryFormat.encode(probe));
+        }
+
+        @Override
+        public CachedProbe deserialize(DataInput in, int available) throws IOException {
+            return BinaryFormat.read(in, BinaryFormat::decodeCachedProbe,
+                                     json -> om.readValue(json, CachedProbe.class));
         }
 
         @Override
@@ -0,0 +1,157 @@
+package com.dacklabs.mp4splicer;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lists directories for the file browser. Each entry's attributes are read once, together with the listing, and the
+ * sorted listing is cached. Listing a directory starts watching it, and files being added or removed reload the
+ * listing in the background, so repeat visits never wait on the disk. Network shares don't always report changes,
+ * so listings are also reloaded in the background once they're {@link #REFRESH_SECONDS} old.
+ */
+public class DirectoryListings {
+
+    private static final int MAX_CACHED_DIRECTORIES = 200;
+    private static final long REFRESH_SECONDS = 60;
+    private static final long EXPIRE_MINUTES = 30;
+    private static final long CHANGE_SETTLE_MILLIS = 1000; // so copying in a batch of files reloads the listing once
+
+    private final ScheduledExecutorService loader = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "directory-lister");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LoadingCache<Path, List<Entry>> listings;
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    private final Set<Path> changedDirectories = ConcurrentHashMap.newKeySet();
+    private final WatchService watchService;
+
+    public DirectoryListings() throws IOException {
+        listings = CacheBuilder.newBuilder()
+                               .maximumSize(MAX_CACHED_DIRECTORIES)
+                               .refreshAfterWrite(REFRESH_SECONDS, TimeUnit.SECONDS)
+                               .expireAfterAccess(EXPIRE_MINUTES, TimeUnit.MINUTES)
+                               .removalListener(this::stopWatching)
+                               .build(CacheLoader.asyncReloading(new CacheLoader<Path, List<Entry>>() {
+                                   @Override
+                                   public List<Entry> load(Path directory) throws IOException {
+                                       return read(directory);
+                                   }
+                               }, loader));
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread watcher = new Thread(this::watch, "directory-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public static class Entry {
+        public final Path path;
+        public final String name;
+        public final boolean isDirectory;
+
+        private Entry(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.name = path.getFileName().toString();
+            this.isDirectory = attributes.isDirectory();
+        }
+    }
+
+    /**
+     * @return the directory's entries, subdirectories first and then by name
+     */
+    public List<Entry> list(Path directory) throws IOException {
+        try {
+            return listings.get(directory.toAbsolutePath().normalize());
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Couldn't list " + directory, e.getCause());
+        }
+    }
+
+    private List<Entry> read(Path directory) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                try {
+                    entries.add(new Entry(path, Files.readAttributes(path, BasicFileAttributes.class)));
+                } catch (IOException e) {
+                    // deleted since it was listed, or we're not allowed to look at it
+                }
+            }
+        }
+        entries.sort(Comparator.comparing((Entry entry) -> !entry.isDirectory)
+                               .thenComparing(entry -> entry.name, String.CASE_INSENSITIVE_ORDER));
+        startWatching(directory);
+        return ImmutableList.copyOf(entries);
+    }
+
+    private void startWatching(Path directory) {
+        watchKeys.computeIfAbsent(directory, dir -> {
+            try {
+                return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException | UnsupportedOperationException e) {
+                return null; // not watchable, the listing will still be refreshed every so often
+            }
+        });
+    }
+
+    private void stopWatching(RemovalNotification<Path, List<Entry>> removal) {
+        if (removal.wasEvicted()) {
+            WatchKey key = watchKeys.remove(removal.getKey());
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                key.pollEvents(); // we only care that something changed, not what
+                Path directory = (Path) key.watchable();
+                if (!key.reset()) {
+                    watchKeys.remove(directory, key); // the directory itself has gone
+                    listings.invalidate(directory);
+                } else if (changedDirectories.add(directory)) {
+                    loader.schedule(() -> {
+                        changedDirectories.remove(directory);
+                        if (listings.getIfPresent(directory) != null) {
+                            listings.refresh(directory);
+                        }
+                    }, CHANGE_SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+}
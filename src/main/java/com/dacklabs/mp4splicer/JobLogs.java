@@ -0,0 +1,240 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.Job;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Looks after the logs directory. Once a job finishes its stderr logs, its segments' included, are gzipped and its
+ * stats log is cut down to the last line, which is all {@link StatsRegistry} ever reads back. A sweep every hour
+ * deletes the logs of jobs that no longer exist and every log of a finished job past the retention age, compressed or
+ * not, then the oldest compressed logs until they fit in the disk budget.
+ */
+public class JobLogs {
+
+    private static final Path LOGS_DIR = Paths.get("logs");
+    private static final long SWEEP_INTERVAL_MINUTES = 60;
+    private static final String PARTIAL = ".partial";
+    private static final long QUIET_MILLIS = TimeUnit.MINUTES.toMillis(1); // files changed since then may be open
+
+    private final Database db;
+    private final long retentionMillis;
+    private final long budgetBytes;
+    private final ScheduledExecutorService janitor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "log-janitor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * @param retentionDays how long to keep a finished job's logs, or 0 to keep them until the job is deleted
+     * @param budgetBytes   how much disk the compressed logs may use between them, or 0 for no limit
+     */
+    public JobLogs(Database db, int retentionDays, long budgetBytes) {
+        this.db = db;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+        this.budgetBytes = budgetBytes;
+        janitor.scheduleWithFixedDelay(this::sweep, 1, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void jobChanged(String jobID) {
+        Job job = db.getJob(jobID);
+        if (job != null && job.status.isFinal()) {
+            // a canceled job's ffmpeg can take a few seconds to stop writing
+            janitor.schedule(() -> compress(jobID), QUIET_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the job's stderr log, which is gzipped if it ends in .gz
+     */
+    public static Path stdErrLog(Job job) {
+        Path log = Paths.get(job.jobStdErrFile());
+        Path compressed = gzipped(log);
+        return !Files.exists(log) && Files.exists(compressed) ? compressed : log;
+    }
+
+    /**
+     * @return the stderr log of one of the job's segments, which is gzipped if it ends in .gz
+     */
+    public static Path segmentStdErrLog(Job job, int segmentIndex) {
+        Path log = Paths.get(job.segmentStdErrFile(segmentIndex));
+        Path compressed = gzipped(log);
+        return !Files.exists(log) && Files.exists(compressed) ? compressed : log;
+    }
+
+    /**
+     * @return how many of the job's segments have logged anything. Segments are started in order, so they're the
+     * first that many.
+     */
+    public static int segmentLogCount(Job job) {
+        int count = 0;
+        while (Files.exists(segmentStdErrLog(job, count))) {
+            count++;
+        }
+        return count;
+    }
+
+    public void delete(String jobID) {
+        for (Path log : logsOf(jobID)) {
+            try {
+                Files.deleteIfExists(log);
+            } catch (IOException e) {
+                System.out.println("Couldn't delete log " + log + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void compress(String jobID) {
+        Job job = db.getJob(jobID);
+        if (job == null || !job.status.isFinal()) {
+            return;
+        }
+        try {
+            for (Path log : logsOf(jobID)) {
+                if (log.toString().endsWith(".gz") || log.toString().endsWith(PARTIAL)) {
+                    continue;
+                }
+                if (log.equals(Paths.get(job.jobStatsFile()))) {
+                    keepLastLine(log);
+                } else {
+                    gzip(log);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void gzip(Path log) throws IOException {
+        Path compressed = gzipped(log);
+        Path partial = Paths.get(compressed + PARTIAL);
+        try (InputStream in = Files.newInputStream(log);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial))) {
+            ByteStreams.copy(in, out);
+        }
+        Files.move(partial, compressed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.setLastModifiedTime(compressed, Files.getLastModifiedTime(log)); // so retention counts from the job
+        Files.delete(log);
+    }
+
+    private static void keepLastLine(Path statsLog) throws IOException {
+        List<String> lines = Files.readAllLines(statsLog);
+        if (lines.size() > 1) {
+            Path partial = Paths.get(statsLog + PARTIAL);
+            Files.write(partial, lines.subList(lines.size() - 1, lines.size()));
+            Files.move(partial, statsLog, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static Path gzipped(Path log) {
+        return Paths.get(log + ".gz");
+    }
+
+    private List<Path> logsOf(String jobID) {
+        List<Path> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(LOGS_DIR, "job-" + jobID + "-*")) {
+            files.forEach(logs::add);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return logs;
+    }
+
+    void sweep() {
+        try {
+            Map<String, Job> jobsByPrefix = new HashMap<>();
+            for (Job job : db.jobs()) {
+                jobsByPrefix.put("job-" + job.jobID + "-", job);
+            }
+            long now = System.currentTimeMillis();
+            List<Path> compressed = new ArrayList<>();
+            Set<String> toCompress = new HashSet<>();
+            int deleted = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(LOGS_DIR, "job-*")) {
+                for (Path file : files) {
+                    long modified = Files.getLastModifiedTime(file).toMillis();
+                    Job job = jobOf(file, jobsByPrefix);
+                    boolean partial = file.toString().endsWith(PARTIAL);
+                    if ((job == null || partial) && now - modified > QUIET_MILLIS) {
+                        Files.deleteIfExists(file); // left behind by a deleted job or an interrupted compression
+                        deleted++;
+                    } else if (job != null && job.status.isFinal() && retentionMillis > 0 &&
+                            now - modified > retentionMillis) {
+                        Files.deleteIfExists(file); // the stats log too, and anything that couldn't be compressed
+                        deleted++;
+                    } else if (job != null && file.toString().endsWith(".gz")) {
+                        compressed.add(file);
+                    } else if (job != null && !partial && job.status.isFinal() && now - modified > QUIET_MILLIS) {
+                        toCompress.add(job.jobID);
+                    }
+                }
+            }
+            toCompress.forEach(this::compress);
+            deleted += enforceBudget(compressed);
+            if (deleted > 0) {
+                System.out.println("Deleted " + deleted + " old logs");
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(); // try again next time, an exception would cancel the schedule
+        }
+    }
+
+    /**
+     * Log names are "job-&lt;job ID&gt;-&lt;job name&gt;-...", and both can contain dashes, so try each one in turn.
+     */
+    private static Job jobOf(Path file, Map<String, Job> jobsByPrefix) {
+        String name = file.getFileName().toString();
+        for (int dash = name.indexOf('-', "job-".length()); dash > 0; dash = name.indexOf('-', dash + 1)) {
+            Job job = jobsByPrefix.get(name.substring(0, dash + 1));
+            if (job != null) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private int enforceBudget(List<Path> compressed) throws IOException {
+        if (budgetBytes <= 0) {
+            return 0;
+        }
+        long total = 0;
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path file : compressed) {
+            long size = Files.size(file);
+            sizes.put(file, size);
+            total += size;
+        }
+        compressed.sort(Comparator.comparing(file -> file.toFile().lastModified()));
+        int deleted = 0;
+        for (Path file : compressed) {
+            if (total <= budgetBytes) {
+                break;
+            }
+            Files.deleteIfExists(file);
+            total -= sizes.get(file);
+            deleted++;
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,425 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.ffmpeg.CachedProbe;
+import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
+import com.dacklabs.mp4splicer.ffmpeg.ProbeCache;
+import com.dacklabs.mp4splicer.model.Job;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an index of every recording under the library roots along with its probed stats, so recordings can be found
+ * by show, date and duration without walking the roots or running ffmpeg. The index is kept in the database and
+ * brought up to date by a scan when the server starts. After that every directory under the roots is watched, and
+ * new, changed and deleted recordings are picked up once they've stopped changing. Network shares don't always
+ * report changes, so the roots are also rescanned every {@link #RESCAN_HOURS} hours.
+ * <p>
+ * Recordings are probed as soon as they're finished, i.e. their size and modification time have stayed the same for
+ * {@link #SETTLE_MILLIS}, by a couple of low-priority threads running a niced ffmpeg. The results go in the probe cache
+ * as well, so a job made from them can be checked and started without probing anything.
+ */
+public class LibraryIndex {
+
+    private static final long RESCAN_HOURS = 6;
+    private static final long SETTLE_MILLIS = TimeUnit.SECONDS.toMillis(30); // recordings in progress keep changing
+    private static final long SETTLE_CHECK_SECONDS = 5;
+    private static final int PROBE_THREADS = 2;
+    private static final DateTimeFormatter ENCODE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Database db;
+    private final ProbeCache probeCache;
+    private final List<Path> roots;
+    private final Map<String, Recording> recordings = new ConcurrentHashMap<>();
+    private final Map<Path, Unsettled> unsettled = new ConcurrentHashMap<>();
+    private final Set<Path> probing = ConcurrentHashMap.newKeySet();
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService indexer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "library-indexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final ExecutorService prober = Executors.newFixedThreadPool(PROBE_THREADS, r -> {
+        Thread thread = new Thread(r, "library-prober");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final WatchService watchService;
+
+    public LibraryIndex(Database db, ProbeCache probeCache, List<Path> roots) throws IOException {
+        this.db = db;
+        this.probeCache = probeCache;
+        this.roots = ImmutableList.copyOf(roots.stream().map(LibraryIndex::normalize).iterator());
+        for (CachedProbe entry : db.libraryEntries()) {
+            recordings.put(entry.path, new Recording(entry));
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread watcher = new Thread(this::watch, "library-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        indexer.scheduleWithFixedDelay(this::scan, 0, RESCAN_HOURS, TimeUnit.HOURS);
+        indexer.scheduleWithFixedDelay(this::updateSettled, SETTLE_CHECK_SECONDS, SETTLE_CHECK_SECONDS,
+                                       TimeUnit.SECONDS);
+    }
+
+    /**
+     * A recording in the index, with the details from its WTV metadata that it can be searched by.
+     */
+    public static class Recording {
+        public final String path;
+        public final String name;
+        public final String title;
+        public final String episode;
+        public final String channel;
+        public final LocalDateTime recorded;
+        public final Duration duration;
+        public final long size;
+        public final boolean readable;
+        private final CachedProbe entry;
+
+        private Recording(CachedProbe entry) {
+            this.entry = entry;
+            this.path = entry.path;
+            this.name = Paths.get(entry.path).getFileName().toString();
+            String title = metadata(entry.stats, "Title");
+            this.title = title != null ? title : name.substring(0, name.length() - ".wtv".length());
+            this.episode = metadata(entry.stats, "WM/SubTitle");
+            this.channel = metadata(entry.stats, "WM/MediaStationCallSign");
+            this.recorded = recordedTime(entry);
+            this.duration = entry.stats.duration != null ? entry.stats.duration : Duration.ZERO;
+            this.size = entry.size;
+            this.readable = entry.stats.inputNumber >= 0;
+        }
+
+        public String formattedRecorded() {
+            return DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM).format(recorded);
+        }
+
+        public String formattedDuration() {
+            return Job.formatDuration(duration);
+        }
+
+        public String formattedSize() {
+            return String.format("%.1f GB", size / (1024.0 * 1024 * 1024));
+        }
+
+        private boolean matches(String text) {
+            return contains(title, text) || contains(episode, text) || contains(name, text);
+        }
+
+        private static boolean contains(String value, String text) {
+            return value != null && value.toLowerCase().contains(text);
+        }
+
+        /**
+         * Media Center stores when it started recording in UTC, the file's modification time is when it stopped.
+         */
+        private static LocalDateTime recordedTime(CachedProbe entry) {
+            String encodeTime = metadata(entry.stats, "WM/WMRVEncodeTime");
+            if (encodeTime != null) {
+                try {
+                    return LocalDateTime.parse(encodeTime, ENCODE_TIME).atOffset(ZoneOffset.UTC)
+                                        .atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+                } catch (DateTimeParseException e) {
+                    // not a recording made by Media Center
+                }
+            }
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.lastModified), ZoneId.systemDefault());
+        }
+
+        private static String metadata(InputFileStats stats, String key) {
+            for (Map.Entry<String, String> metadata : stats.metadata.entrySet()) {
+                if (metadata.getKey().equalsIgnoreCase(key) && !metadata.getValue().isEmpty()) {
+                    return metadata.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A recording that may still be being written, as it was when it was last seen changing.
+     */
+    private static class Unsettled {
+        final long size;
+        final long lastModified;
+        final long since;
+
+        Unsettled(long size, long lastModified, long since) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.since = since;
+        }
+
+        boolean isSameAs(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    public List<Path> roots() {
+        return roots;
+    }
+
+    /**
+     * @param text     only recordings whose title, episode or file name contains this, or null for any
+     * @param from     only recordings made on or after this day, or null
+     * @param to       only recordings made on or before this day, or null
+     * @param shortest only recordings at least this long, or null
+     * @param longest  only recordings at most this long, or null
+     * @return the matching recordings, newest first
+     */
+    public List<Recording> search(String text, LocalDate from, LocalDate to, Duration shortest, Duration longest) {
+        String lowerCaseText = text != null ? text.trim().toLowerCase() : "";
+        List<Recording> matches = new ArrayList<>();
+        for (Recording recording : recordings.values()) {
+            if (recording.readable
+                    && (lowerCaseText.isEmpty() || recording.matches(lowerCaseText))
+                    && (from == null || !recording.recorded.toLocalDate().isBefore(from))
+                    && (to == null || !recording.recorded.toLocalDate().isAfter(to))
+                    && (shortest == null || recording.duration.compareTo(shortest) >= 0)
+                    && (longest == null || recording.duration.compareTo(longest) <= 0)) {
+                matches.add(recording);
+            }
+        }
+        matches.sort(Comparator.comparing((Recording recording) -> recording.recorded).reversed()
+                               .thenComparing(recording -> recording.path));
+        return matches;
+    }
+
+    public int size() {
+        return recordings.size();
+    }
+
+    /**
+     * @return how many recordings have been found but not probed yet, including any still being recorded
+     */
+    public int pending() {
+        return unsettled.size() + probing.size();
+    }
+
+    void scan() {
+        try {
+            Set<String> found = new HashSet<>();
+            List<Path> scanned = new ArrayList<>();
+            for (Path root : roots) {
+                if (!Files.isDirectory(root)) {
+                    System.out.println("Library root " + root + " isn't available, keeping its recordings for now");
+                    continue;
+                }
+                walk(root, found);
+                scanned.add(root);
+            }
+            int removed = 0;
+            for (String path : new ArrayList<>(recordings.keySet())) {
+                Path recording = Paths.get(path);
+                boolean inScannedRoot = scanned.stream().anyMatch(recording::startsWith);
+                boolean inAnyRoot = roots.stream().anyMatch(recording::startsWith);
+                if (!found.contains(path) && (inScannedRoot || !inAnyRoot)) {
+                    remove(path);
+                    removed++;
+                }
+            }
+            System.out.println("Library has " + recordings.size() + " recordings, " + pending() + " to probe and " +
+                                       removed + " removed");
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // try again next time, an exception would cancel the schedule
+        }
+    }
+
+    private void walk(Path start, Set<String> found) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    startWatching(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (isRecording(file) && attributes.isRegularFile()) {
+                        found.add(file.toString());
+                        update(file, attributes);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // deleted since it was listed, or we're not allowed to look at it
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Couldn't scan " + start + ": " + e.getMessage());
+        }
+    }
+
+    private void update(Path file, BasicFileAttributes attributes) {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Recording existing = recordings.get(file.toString());
+        if (existing != null && existing.entry.isCurrentFor(attributes.size(), lastModified)) {
+            return;
+        }
+        if (System.currentTimeMillis() - lastModified < SETTLE_MILLIS) {
+            // probably still being recorded or copied
+            unsettled.putIfAbsent(file, new Unsettled(attributes.size(), lastModified, System.currentTimeMillis()));
+        } else {
+            probe(file);
+        }
+    }
+
+    /**
+     * Probes the recordings that haven't changed since they were last checked, at least {@link #SETTLE_MILLIS} ago.
+     * Comparing the size as well as the modification time catches shares that only update the time now and again.
+     */
+    private void updateSettled() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Path, Unsettled> change : unsettled.entrySet()) {
+            Path file = change.getKey();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                unsettled.remove(file);
+                remove(file.toString()); // it's gone
+                continue;
+            }
+            Unsettled lastSeen = change.getValue();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (!lastSeen.isSameAs(attributes)) {
+                unsettled.replace(file, lastSeen, new Unsettled(attributes.size(), lastModified, now));
+            } else if (now - lastSeen.since >= SETTLE_MILLIS && unsettled.remove(file, lastSeen)) {
+                Recording existing = recordings.get(file.toString());
+                if (existing == null || !existing.entry.isCurrentFor(attributes.size(), lastModified)) {
+                    probe(file);
+                }
+            }
+        }
+    }
+
+    private void probe(Path file) {
+        if (!probing.add(file)) {
+            return;
+        }
+        prober.execute(() -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                InputFileStats stats = probeCache.probeInBackground(file.toString());
+                // recordings ffmpeg can't read are kept too, so they aren't probed again until they change
+                CachedProbe entry = new CachedProbe(file.toString(), attributes.size(),
+                                                    attributes.lastModifiedTime().toMillis(), stats);
+                db.saveLibraryEntry(entry);
+                recordings.put(entry.path, new Recording(entry));
+            } catch (IOException e) {
+                System.out.println("Couldn't probe " + file + " for the library: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                probing.remove(file);
+            }
+        });
+    }
+
+    private void remove(String path) {
+        if (recordings.remove(path) != null) {
+            db.removeLibraryEntry(path);
+        }
+    }
+
+    private void startWatching(Path directory) {
+        watchKeys.computeIfAbsent(directory, dir -> {
+            try {
+                return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | UnsupportedOperationException e) {
+                return null; // not watchable, the rescans will still find its recordings
+            }
+        });
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        indexer.execute(() -> walk(directory, new HashSet<>())); // too much happened, look again
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context());
+                    if (isRecording(changed)) {
+                        unsettled.putIfAbsent(changed, new Unsettled(-1, -1, System.currentTimeMillis()));
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        indexer.execute(() -> {
+                            if (Files.isDirectory(changed)) {
+                                walk(changed, new HashSet<>()); // a directory of recordings copied or moved in
+                            }
+                        });
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        indexer.execute(() -> removeMissing(changed));
+                    }
+                }
+                if (!key.reset()) {
+                    watchKeys.remove(directory, key); // the directory itself has gone
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Forgets the recordings under a directory that was deleted or moved away.
+     */
+    private void removeMissing(Path directory) {
+        for (String path : new ArrayList<>(recordings.keySet())) {
+            Path recording = Paths.get(path);
+            if (recording.startsWith(directory) && !Files.exists(recording)) {
+                remove(path);
+            }
+        }
+    }
+
+    private static boolean isRecording(Path file) {
+        return file.getFileName() != null && file.getFileName().toString().toLowerCase().endsWith(".wtv");
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,157 @@
+package com.dacklabs.mp4splicer;
+
+import com.google.common.io.ByteStreams;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves ffmpeg's stderr logs as raw bytes straight from the file with {@link FileChannel#transferTo}, so even a
+ * log of hundreds of megabytes is never decoded or buffered in full. Supports a single HTTP byte range, e.g.
+ * {@code Range: bytes=-65536} for the last 64KB, and a follow mode that keeps the response open and sends whatever
+ * ffmpeg appends until the job finishes. Finished jobs' logs are gzipped by {@link JobLogs} and sent still compressed
+ * to browsers that accept gzip.
+ */
+public class LogStreamer {
+
+    private static final long FOLLOW_POLL_MILLIS = 500;
+    private static final int MAX_FOLLOWERS = 50;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final AtomicInteger followers = new AtomicInteger();
+
+    /**
+     * @param stillWriting whether the log may still grow; following stops once this is false and everything written
+     *                     has been sent
+     */
+    public void serve(Path log, boolean follow, BooleanSupplier stillWriting, HttpServletRequest request,
+                      HttpServletResponse response) throws IOException, InterruptedException {
+        if (!Files.exists(log)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No log has been written for this job yet");
+            return;
+        }
+        if (log.toString().endsWith(".gz")) {
+            serveCompressed(log, request, response); // the job has finished, so there's nothing to follow
+            return;
+        }
+        if (follow && followers.incrementAndGet() > MAX_FOLLOWERS) {
+            followers.decrementAndGet();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many logs being followed");
+            return;
+        }
+        try (FileChannel file = FileChannel.open(log, StandardOpenOption.READ)) {
+            long size = file.size();
+            long start = 0;
+            long end = size; // exclusive
+            String range = request.getHeader("Range");
+            Matcher matcher = range != null ? RANGE.matcher(range.trim()) : null;
+            if (matcher != null && matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                if (matcher.group(1).isEmpty()) {
+                    start = Math.max(0, size - Long.parseLong(matcher.group(2))); // a suffix, the last N bytes
+                } else {
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        end = Math.min(size, Long.parseLong(matcher.group(2)) + 1);
+                    }
+                }
+                if (start >= end && !follow) {
+                    response.setHeader("Content-Range", "bytes */" + size);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                if (!follow) {
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+                }
+            }
+            response.setContentType("text/plain; charset=UTF-8");
+            response.setHeader("Accept-Ranges", "bytes");
+            response.setHeader("X-Content-Type-Options", "nosniff"); // otherwise browsers hold back the first 1KB
+            if (!follow) {
+                response.setHeader("Content-Length", Long.toString(end - start));
+            }
+
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel channel = Channels.newChannel(out);
+            long position = transfer(file, start, end, channel);
+            out.flush();
+            if (follow) {
+                follow(file, position, stillWriting, channel, out);
+            }
+        } catch (IOException e) {
+            // the browser went away, this is normal
+        } finally {
+            if (follow) {
+                followers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Sends a gzipped log as it is if the browser accepts gzip, and decompresses it for those that don't. Ranges are
+     * ignored, since they'd be ranges of the compressed bytes.
+     */
+    private static void serveCompressed(Path log, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        try (FileChannel file = FileChannel.open(log, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                response.setHeader("Content-Encoding", "gzip");
+                response.setHeader("Content-Length", Long.toString(file.size()));
+                transfer(file, 0, file.size(), Channels.newChannel(out));
+            } else {
+                ByteStreams.copy(new GZIPInputStream(Channels.newInputStream(file)), out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the browser went away, this is normal
+        }
+    }
+
+    private static void follow(FileChannel file, long position, BooleanSupplier stillWriting,
+                               WritableByteChannel channel, OutputStream out) throws IOException, InterruptedException {
+        while (true) {
+            boolean mayGrow = stillWriting.getAsBoolean(); // checked first so the last bytes are always sent
+            long size = file.size();
+            if (size < position) {
+                position = 0; // the log was compacted, or the job restarted and its log truncated
+            }
+            if (size > position) {
+                position = transfer(file, position, size, channel);
+                out.flush();
+            } else if (!mayGrow) {
+                return;
+            } else {
+                Thread.sleep(FOLLOW_POLL_MILLIS);
+            }
+        }
+    }
+
+    private static long transfer(FileChannel file, long position, long end, WritableByteChannel channel)
+            throws IOException {
+        while (position < end) {
+            long transferred = file.transferTo(position, end - position, channel);
+            if (transferred <= 0) {
+                break; // the file shrank underneath us
+            }
+            position += transferred;
+        }
+        return position;
+    }
+}
@@ -1,44 +1,79 @@
 package com.dacklabs.mp4splicer;
 
+import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
+import com.dacklabs.mp4splicer.ffmpeg.InputProber;
+import com.dacklabs.mp4splicer.ffmpeg.ProbeCache;
+import com.dacklabs.mp4splicer.ffmpeg.StreamCompatibility;
+import com.dacklabs.mp4splicer.metrics.Histogram;
+import com.dacklabs.mp4splicer.metrics.Metrics;
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
 import com.dacklabs.mp4splicer.model.EncodingStats;
+import com.dacklabs.mp4splicer.model.InputFile;
 import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.dacklabs.mp4splicer.model.JobReport;
+import com.dacklabs.mp4splicer.model.JobReportSummary;
 import com.dacklabs.mp4splicer.model.JobStatus;
 import com.dacklabs.mp4splicer.templateengines.ExternalJadeTemplateEngine;
 import com.dacklabs.mp4splicer.templateengines.ResourcesJadeTemplateEngine;
+import com.dacklabs.mp4splicer.workers.CpuBudget;
 import com.dacklabs.mp4splicer.workers.FFMpegConcatWorker;
 import com.dacklabs.mp4splicer.workers.FFMpegFilterGraphWorker;
-import com.google.common.base.Charsets;
+import com.dacklabs.mp4splicer.workers.JobScheduler;
+import com.dacklabs.mp4splicer.workers.ProcessSupervisor;
+import com.google.common.base.Enums;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.MultimapBuilder;
+import com.google.common.net.UrlEscapers;
 import spark.ModelAndView;
 import spark.QueryParamsMap;
+import spark.Route;
 import spark.Spark;
 import spark.TemplateEngine;
+import spark.TemplateViewRoute;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class MovieServer {
+
+    private static final int JOBS_PER_PAGE = 25;
+    private static final int FILES_PER_PAGE = 250;
+    private static final Histogram HTTP_SECONDS =
+            Metrics.histogram("http_request_seconds", "Time taken to handle a request, by route",
+                              new double[]{0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 10},
+                              "method", "route");
+
     public static void main(String[] argsArray) throws IOException {
         Iterator<String> args = Lists.newArrayList(argsArray).iterator();
         boolean debug = false;
         String tempDirPath = null;
         int port = 4567;
         String ffmpeg = null;
+        int copySlots = 2;
+        int encodeSlots = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        int probeThreads = 8;
+        int probeThreadsPerJob = 4;
+        int checkpointMinutes = 0;
+        int logRetentionDays = 30;
+        long logBudgetMB = 1024;
+        List<Path> libraryRoots = new ArrayList<>();
+        EncodeProfile profile = EncodeProfile.BALANCED;
+        boolean fixedSlots = false;
+        int cpuCores = Runtime.getRuntime().availableProcessors();
+        boolean pinCores = false;
         while (args.hasNext()) {
             String flag = args.next();
             switch (flag) {
@@ -52,15 +87,65 @@ public class MovieServer {
                 case "-port":
                     Preconditions.checkArgument(args.hasNext(), "Need to specify -port <theport>");
                     port = Integer.valueOf(args.next());
+                    break;
                 case "-ffmpeg":
                     Preconditions.checkArgument(args.hasNext(), "Need to specify ffmpeg path after -ffmpeg");
                     ffmpeg = args.next();
+                    break;
+                case "-copySlots":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -copySlots <count>");
+                    copySlots = Integer.valueOf(args.next());
+                    break;
+                case "-encodeSlots":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -encodeSlots <count>");
+                    encodeSlots = Integer.valueOf(args.next());
+                    break;
+                case "-fixedSlots":
+                    fixedSlots = true;
+                    break;
+                case "-probeThreads":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -probeThreads <count>");
+                    probeThreads = Integer.valueOf(args.next());
+                    break;
+                case "-probeThreadsPerJob":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -probeThreadsPerJob <count>");
+                    probeThreadsPerJob = Integer.valueOf(args.next());
+                    break;
+                case "-checkpointMinutes":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -checkpointMinutes <minutes>");
+                    checkpointMinutes = Integer.valueOf(args.next());
+                    break;
+                case "-logRetentionDays":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -logRetentionDays <days>");
+                    logRetentionDays = Integer.valueOf(args.next());
+                    break;
+                case "-logBudgetMB":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -logBudgetMB <megabytes>");
+                    logBudgetMB = Long.valueOf(args.next());
+                    break;
+                case "-libraryRoot":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -libraryRoot <directory>");
+                    libraryRoots.add(Paths.get(args.next()));
+                    break;
+                case "-profile":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -profile <archive|balanced|fastest>");
+                    profile = EncodeProfile.valueOf(args.next().toUpperCase());
+                    break;
+                case "-cpuCores":
+                    Preconditions.checkArgument(args.hasNext(), "Need to specify -cpuCores <count>");
+                    cpuCores = Integer.valueOf(args.next());
+                    break;
+                case "-pinCores":
+                    pinCores = true;
+                    break;
             }
         }
         final String ffmpegPath = ffmpeg;
+        final EncodeProfile defaultProfile = profile;
         Preconditions.checkNotNull(tempDirPath, "Specify a location to put intermediate files with -tmpDir");
         Preconditions.checkNotNull(ffmpegPath, "Specify the path to the ffmpeg executable with -ffmpeg");
         final File tempDir = new File(tempDirPath);
+        final long checkpointMillis = checkpointMinutes * 60 * 1000L;
         TemplateEngine templateEngine = new ResourcesJadeTemplateEngine();
         if (debug) {
             System.out.println("Debugging");
@@ -71,144 +156,410 @@ public class MovieServer {
             Files.createDirectory(Paths.get("logs/")); // create logs directory if it doesn't exist
         }
 
-        ExecutorService executorService = Executors.newCachedThreadPool();
+        StatsRegistry statsRegistry = new StatsRegistry();
+        JobScheduler scheduler = new JobScheduler(copySlots, encodeSlots, statsRegistry, !fixedSlots);
 
-        ListMultimap<String, Process> runningProcesses = MultimapBuilder.hashKeys().arrayListValues().build();
+        ProcessSupervisor processSupervisor = new ProcessSupervisor();
+        CpuBudget cpuBudget = new CpuBudget(cpuCores, pinCores);
 
         Database db = new Database("job-database");
+        Runtime.getRuntime().addShutdownHook(new Thread(db::close)); // writes out saves still waiting to be committed
+        ProbeCache probeCache = new ProbeCache(db, ffmpegPath);
+        InputProber inputProber = new InputProber(probeCache, probeThreads, probeThreadsPerJob);
 
-        for (Job job : db.jobs()) {
-            if (!job.status.equals(JobStatus.DONE) && !job.status.equals(JobStatus.CANCELED)) {
+        List<Job> existingJobs = db.jobs();
+        existingJobs.sort(Comparator.comparing(j -> j.createDate)); // requeue in the order they were created
+        for (Job job : existingJobs) {
+            if (!job.status.isFinal()) {
                 System.out.println("Restarting incomplete job " + job.jobID);
-                executorService.submit(createWorker(tempDir, ffmpegPath, runningProcesses, db, job));
+                scheduler.submit(job, createWorker(tempDir, ffmpegPath, checkpointMillis, scheduler, processSupervisor,
+                                                   cpuBudget, inputProber, statsRegistry, db, job));
             }
         }
+        ProgressBroadcaster progressBroadcaster = new ProgressBroadcaster(db, statsRegistry, scheduler);
+        LogStreamer logStreamer = new LogStreamer();
+        DirectoryListings directoryListings = new DirectoryListings();
+        LibraryIndex libraryIndex = new LibraryIndex(db, probeCache, libraryRoots);
+        JobLogs jobLogs = new JobLogs(db, logRetentionDays, logBudgetMB * 1024 * 1024);
+        db.addJobListener(jobLogs::jobChanged);
+        db.addJobListener(progressBroadcaster::jobChanged);
+        statsRegistry.addListener(progressBroadcaster::jobChanged);
+        registerGauges(db, statsRegistry, scheduler, processSupervisor, cpuBudget);
+
         Spark.port(port);
 
         Spark.staticFileLocation("public");
 
-        Spark.get("/", (req, res) -> {
-            Map<String, Object> map = new HashMap<>();
-            List<Job> jobs = db.jobs();
-            Collections.sort(jobs, Job.COMPARATOR);
-            List<Double> completionPercentages = jobs.stream().map(j -> {
-                List<EncodingStats> concatStats = db.getJobStats(j);
-                EncodingStats currentStats = Iterables.getLast(concatStats, EncodingStats.none());
-                return j.percentComplete(currentStats);
-            }).collect(Collectors.toList());
-            map.put("jobs", jobs);
-            map.put("completionPercentages", completionPercentages);
+        get("/", (req, res) -> {
+            Integer page = parseNullableInt(req.queryParams("page"));
+            Map<String, Object> map = mainPageModel(db, statsRegistry, scheduler, req.queryParams("status"),
+                                                    page != null ? page : 1);
             return new ModelAndView(map, "main");
         }, templateEngine);
 
-        Spark.get("/jobs/:jobId", (req, res) -> {
+        get("/jobs/:jobId", (req, res) -> {
             String jobId = req.params("jobId");
             Job job = db.getJob(jobId);
-            List<EncodingStats> outputStats = db.getJobStats(job);
-            EncodingStats currentOutputStats = Iterables.getLast(outputStats, EncodingStats.none());
+            EncodingStats currentOutputStats = statsRegistry.latestStats(job);
 
             Map<String, Object> map = new HashMap<>();
             map.put("job", job);
             map.put("percentComplete", job.percentComplete(currentOutputStats));
             map.put("outputStats", currentOutputStats);
+            Integer queuePosition = scheduler.queuePositions().get(job.jobID);
+            map.put("queuePosition", queuePosition);
+            map.put("holdReason", queuePosition != null ? scheduler.holdReason(JobScheduler.poolFor(job)) : null);
+            List<Integer> segmentLogs =
+                    IntStream.range(0, JobLogs.segmentLogCount(job)).boxed().collect(Collectors.toList());
+            map.put("segmentLogs", segmentLogs);
             return new ModelAndView(map, "job");
         }, templateEngine);
 
-        Spark.get("/jobs/:jobId/cancel", (req, res) -> {
+        // the event streams stay open as long as the page is, so aren't timed
+        Spark.get("/events", (req, res) -> {
+            progressBroadcaster.stream(null, res.raw());
+            return null;
+        });
+
+        Spark.get("/jobs/:jobId/events", (req, res) -> {
+            progressBroadcaster.stream(req.params("jobId"), res.raw());
+            return null;
+        });
+
+        get("/jobs/:jobId/cancel", (req, res) -> {
             String jobID = req.params("jobId");
-            Job job = db.saveJob(db.getJob(jobID).cancel());
-            for (Process process : runningProcesses.get(job.jobID)) {
-                process.destroyForcibly();
-            }
+            scheduler.remove(jobID);
+            db.updateUnfinishedJob(jobID, Job::cancel); // a job that has finished meanwhile stays finished
+            processSupervisor.cancel(jobID);
 
             res.redirect("/jobs/" + jobID);
             return "";
         });
 
-        Spark.get("/jobs/:jobId/delete", (req, res) -> {
+        get("/jobs/:jobId/delete", (req, res) -> {
             String jobID = req.params("jobId");
-            Job job = db.saveJob(db.getJob(jobID));
-            for (Process process : runningProcesses.get(job.jobID)) {
-                process.destroyForcibly();
+            Job job = db.getJob(jobID);
+            if (job == null) {
+                res.raw().sendError(404, "No job " + jobID);
+                return null;
             }
+            scheduler.remove(jobID);
+            processSupervisor.cancel(job.jobID);
             db.deleteJob(job.jobID);
+            statsRegistry.remove(job.jobID);
+            deleteTempFiles(tempDir, job.jobID);
+            jobLogs.delete(job.jobID);
 
             res.redirect("/");
             return "";
         });
 
-        Spark.get("/logs/:jobId", (req, res) -> {
+        get("/logs/:jobId", (req, res) -> {
+            String jobID = req.params("jobId");
+            Job job = db.getJob(jobID);
+            if (job == null) {
+                res.raw().sendError(404, "No job " + jobID);
+                return null;
+            }
+            Path log = JobLogs.stdErrLog(job);
+            int segmentLogs = JobLogs.segmentLogCount(job);
+            if (!Files.exists(log) && segmentLogs > 0) {
+                // a job encoding in segments only has its own log once they're being joined
+                String follow = req.queryParams("follow") != null ? "?follow=true" : "";
+                res.redirect("/logs/" + jobID + "/segments/" + (segmentLogs - 1) + follow);
+                return null;
+            }
+            logStreamer.serve(log, req.queryParams("follow") != null, () -> {
+                Job latest = db.getJob(jobID);
+                return latest != null && !latest.status.isFinal();
+            }, req.raw(), res.raw());
+            return null;
+        });
+
+        get("/logs/:jobId/segments/:segment", (req, res) -> {
             String jobID = req.params("jobId");
             Job job = db.getJob(jobID);
-            BufferedReader reader =
-                    Files.newBufferedReader(Paths.get(job.jobStdErrFile()), Charsets.UTF_8);
-            PrintWriter writer = res.raw().getWriter();
-            char[] buf = new char[10000];
-            while (reader.ready()) {
-                int size = reader.read(buf);
-                if (size == -1) break;
-                writer.write(buf, 0, size);
+            Integer segment = parseNullableInt(req.params("segment"));
+            if (job == null || segment == null || segment < 0) {
+                res.raw().sendError(404, "No job " + jobID + " or no segment " + req.params("segment"));
+                return null;
             }
-            reader.close();
-            res.type("text/plain");
-            writer.flush();
+            logStreamer.serve(JobLogs.segmentStdErrLog(job, segment), req.queryParams("follow") != null, () -> {
+                Job latest = db.getJob(jobID);
+                return latest != null && !latest.status.isFinal();
+            }, req.raw(), res.raw());
             return null;
         });
 
-        Spark.get("/browse", (req, res) -> {res.redirect("/browse/C:"); return null;});
+        get("/browse", (req, res) -> {res.redirect("/browse/C:"); return null;});
 
-        Spark.get("/browse/:url", (req, res) -> {
+        get("/browse/:url", (req, res) -> {
             String url = req.params("url");
             String path = toPath(url);
-            File file = new File(path);
+            List<DirectoryListings.Entry> entries;
+            try {
+                entries = directoryListings.list(Paths.get(path));
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't read directory " + path, e);
+            }
+            int pageCount = Math.max(1, (entries.size() + FILES_PER_PAGE - 1) / FILES_PER_PAGE);
+            Integer requestedPage = parseNullableInt(req.queryParams("page"));
+            int page = Math.min(Math.max(1, requestedPage != null ? requestedPage : 1), pageCount);
             List<FrontendFile> directoryFiles = new ArrayList<>();
-            if (file.isDirectory() && file.canRead()) {
-                File[] files = file.listFiles();
-                directoryFiles = Arrays.asList(files).stream()
-                                       .sorted((f1, f2) -> Boolean.compare(f2.isDirectory(), f1.isDirectory()))
-                                       .map(MovieServer::frontendFile).collect(Collectors.toList());
-                File parent = file.getParentFile();
-                if (parent != null && parent.exists()) {
-                    directoryFiles.add(0, frontendFile(parent, ".."));
-                }
-            } else {
-                throw new RuntimeException("Couldn't read directory " + file.getAbsolutePath());
+            Path parent = Paths.get(path).toAbsolutePath().getParent();
+            if (parent != null) {
+                directoryFiles.add(frontendFile(parent.toString(), "..", true));
+            }
+            for (DirectoryListings.Entry entry : entries.subList((page - 1) * FILES_PER_PAGE,
+                                                                 Math.min(entries.size(), page * FILES_PER_PAGE))) {
+                directoryFiles.add(frontendFile(entry.path.toString(), entry.name, entry.isDirectory));
             }
             Map<String, Object> listings = new HashMap<>();
             listings.put("directory", path);
             listings.put("listings", directoryFiles);
+            listings.put("page", page);
+            listings.put("pageCount", pageCount);
+            listings.put("fileCount", entries.size());
             return new ModelAndView(listings, "listings");
         }, templateEngine);
 
-        Spark.post("/create-job", (req, res) -> {
+        get("/library", (req, res) -> {
+            String text = req.queryParams("q");
+            LocalDate from = parseNullableDate(req.queryParams("from"));
+            LocalDate to = parseNullableDate(req.queryParams("to"));
+            Integer minMinutes = parseNullableInt(req.queryParams("minMinutes"));
+            Integer maxMinutes = parseNullableInt(req.queryParams("maxMinutes"));
+            List<LibraryIndex.Recording> matches =
+                    libraryIndex.search(text, from, to, minMinutes != null ? Duration.ofMinutes(minMinutes) : null,
+                                        maxMinutes != null ? Duration.ofMinutes(maxMinutes) : null);
+            int pageCount = Math.max(1, (matches.size() + FILES_PER_PAGE - 1) / FILES_PER_PAGE);
+            Integer requestedPage = parseNullableInt(req.queryParams("page"));
+            int page = Math.min(Math.max(1, requestedPage != null ? requestedPage : 1), pageCount);
+
+            Map<String, Object> map = new HashMap<>();
+            map.put("recordings", matches.subList((page - 1) * FILES_PER_PAGE,
+                                                  Math.min(matches.size(), page * FILES_PER_PAGE)));
+            map.put("q", text != null ? text : "");
+            map.put("from", from != null ? from.toString() : "");
+            map.put("to", to != null ? to.toString() : "");
+            map.put("minMinutes", minMinutes != null ? minMinutes.toString() : "");
+            map.put("maxMinutes", maxMinutes != null ? maxMinutes.toString() : "");
+            map.put("searchQuery", searchQuery(req.queryMap()));
+            map.put("page", page);
+            map.put("pageCount", pageCount);
+            map.put("matchCount", matches.size());
+            map.put("indexedCount", libraryIndex.size());
+            map.put("pendingCount", libraryIndex.pending());
+            map.put("roots", libraryIndex.roots());
+            map.put("directory", libraryIndex.roots().isEmpty() ? "" : libraryIndex.roots().get(0).toString());
+            return new ModelAndView(map, "library");
+        }, templateEngine);
+
+        get("/report", (req, res) -> {
+            Map<String, List<JobReport>> reportsBySettings = new TreeMap<>();
+            List<JobReport> allReports = new ArrayList<>();
+            for (Job job : db.jobs(EnumSet.of(JobStatus.DONE), 0, Integer.MAX_VALUE)) {
+                if (job.report != null) {
+                    reportsBySettings.computeIfAbsent(job.settings(), settings -> new ArrayList<>()).add(job.report);
+                    allReports.add(job.report);
+                }
+            }
+            List<JobReportSummary> summaries = new ArrayList<>();
+            reportsBySettings.forEach((settings, reports) -> summaries.add(new JobReportSummary(settings, reports)));
+            summaries.sort(Comparator.comparing(JobReportSummary::speedPerCore).reversed());
+
+            Map<String, Object> map = new HashMap<>();
+            map.put("summaries", summaries);
+            map.put("total", new JobReportSummary("All jobs", allReports));
+            return new ModelAndView(map, "report");
+        }, templateEngine);
+
+        get("/scheduler", (req, res) -> {
+            List<JobScheduler.Pool> pools = Arrays.asList(JobScheduler.Pool.values());
+            Map<String, Object> map = new HashMap<>();
+            map.put("pools", pools);
+            map.put("running", pools.stream().map(scheduler::runningCount).collect(Collectors.toList()));
+            map.put("queued", pools.stream().map(scheduler::queueDepth).collect(Collectors.toList()));
+            map.put("holdReasons", pools.stream().map(scheduler::holdReason).collect(Collectors.toList()));
+            map.put("decisions", scheduler.recentDecisions());
+            return new ModelAndView(map, "scheduler");
+        }, templateEngine);
+
+        get("/metrics", (req, res) -> {
+            res.type(Metrics.CONTENT_TYPE);
+            return Metrics.scrape();
+        });
+
+        post("/create-job", (req, res) -> {
             QueryParamsMap jobDetails = req.queryMap();
             String name = Preconditions.checkNotNull(jobDetails.get("name").value(), "job name cannot be null");
             String outputFile =
                     Preconditions.checkNotNull(jobDetails.get("output").value(), "output file name cannot be null");
             String directory =
                     Preconditions.checkNotNull(jobDetails.get("directory").value(), "Base directory cannot be null");
-            boolean goFast = jobDetails.get("fast").value() != null;
+            String modeValue = jobDetails.get("mode").value();
+            EncodingMode mode = modeValue != null ? Enums.getIfPresent(EncodingMode.class, modeValue).orNull() : null;
+            String profileValue = jobDetails.get("profile").value();
+            EncodeProfile jobProfile = profileValue != null
+                                       ? Enums.getIfPresent(EncodeProfile.class, profileValue).or(defaultProfile)
+                                       : defaultProfile;
             String[] inputFiles = jobDetails.get("inputFiles").values();
             Integer startTrim = getTrim("startTrim", jobDetails);
             Integer endTrim = getTrim("endTrim", jobDetails);
+            String priorityValue = jobDetails.get("priority").value();
+            JobPriority priority = priorityValue != null
+                                   ? Enums.getIfPresent(JobPriority.class, priorityValue).or(JobPriority.NORMAL)
+                                   : JobPriority.NORMAL;
+            Integer segments = parseNullableInt(jobDetails.get("segments").value());
+
+            // recordings found by the library index are usually probed already, so they can be checked up front
+            List<InputFile> inputs = new ArrayList<>();
+            for (String inputFile : inputFiles) {
+                Optional<InputFileStats> stats = probeCache.cached(inputFile);
+                inputs.add(stats.isPresent() ? new InputFile(inputFile, stats.get()) : InputFile.create(inputFile));
+            }
+            List<InputFile> probed = inputs.stream().filter(i -> i.stats.inputNumber >= 0).collect(Collectors.toList());
+            if (mode == null) {
+                mode = EncodingMode.AUTOMATIC;
+            }
+            if (mode == EncodingMode.AUTOMATIC && probed.size() == inputs.size()) {
+                mode = StreamCompatibility.fastestMode(inputs);
+            } // otherwise the worker chooses once it has probed the rest, rather than holding up the request
+            // an automatic job can always fall back to re-encoding, so only what stops that stops it
+            EncodingMode checkedMode = mode == EncodingMode.AUTOMATIC ? EncodingMode.REENCODE : mode;
+            List<String> problems = StreamCompatibility.problems(probed, checkedMode);
+            if (!problems.isEmpty()) {
+                res.raw().sendError(400, "These files can't be joined: " + Joiner.on("; ").join(problems));
+                return null;
+            }
 
             String jobId = UUID.randomUUID().toString();
-            Job job = Job.create(jobId, name, directory, outputFile, Arrays.asList(inputFiles), startTrim, endTrim,
-                                 goFast);
+            Job job = Job.create(jobId, name, directory, outputFile, inputs, startTrim, endTrim, mode, jobProfile,
+                                 priority, segments != null ? segments : 1);
             db.saveJob(job);
-            executorService.submit(createWorker(tempDir, ffmpegPath, runningProcesses, db, job));
+            scheduler.submit(job, createWorker(tempDir, ffmpegPath, checkpointMillis, scheduler, processSupervisor,
+                                               cpuBudget, inputProber, statsRegistry, db, job));
 
             res.redirect("/");
             return null;
         });
     }
 
-    private static Runnable createWorker(File tempDir, String ffmpegPath, ListMultimap<String, Process> runningProcesses,
+    /**
+     * @param status only list jobs with this status, or null for all jobs
+     * @param page   which page of the list to show, starting from 1
+     */
+    static Map<String, Object> mainPageModel(Database db, StatsRegistry statsRegistry, JobScheduler scheduler,
+                                             String status, int page) {
+        JobStatus statusFilter = status != null ? Enums.getIfPresent(JobStatus.class, status).orNull() : null;
+        Set<JobStatus> statuses = statusFilter != null ? EnumSet.of(statusFilter) : EnumSet.allOf(JobStatus.class);
+        int pageCount = Math.max(1, (db.countJobs(statuses) + JOBS_PER_PAGE - 1) / JOBS_PER_PAGE);
+        page = Math.max(1, Math.min(page, pageCount));
+
+        Map<String, Object> map = new HashMap<>();
+        List<Job> jobs = db.jobs(statuses, (page - 1) * JOBS_PER_PAGE, JOBS_PER_PAGE);
+        List<Double> completionPercentages = jobs.stream()
+                                                 .map(j -> j.percentComplete(statsRegistry.latestStats(j)))
+                                                 .collect(Collectors.toList());
+        Map<String, Integer> positions = scheduler.queuePositions();
+        List<Integer> queuePositions = jobs.stream().map(j -> positions.get(j.jobID)).collect(Collectors.toList());
+        map.put("jobs", jobs);
+        map.put("completionPercentages", completionPercentages);
+        map.put("queuePositions", queuePositions);
+        map.put("statuses", JobStatus.values());
+        map.put("statusFilter", statusFilter);
+        map.put("statusQuery", statusFilter != null ? "&status=" + statusFilter.name() : "");
+        map.put("page", page);
+        map.put("pageCount", pageCount);
+        return map;
+    }
+
+    private static void registerGauges(Database db, StatsRegistry statsRegistry, JobScheduler scheduler,
+                                       ProcessSupervisor processSupervisor, CpuBudget cpuBudget) {
+        Metrics.gauge("queue_depth", "Jobs waiting for a slot", "pool", () -> perPool(scheduler::queueDepth));
+        Metrics.gauge("running_jobs", "Jobs running", "pool", () -> perPool(scheduler::runningCount));
+        Metrics.gauge("ffmpeg_processes", "ffmpeg processes running for jobs", processSupervisor::runningProcessCount);
+        Metrics.gauge("ffmpeg_encode_threads", "Threads the running encodes were launched with between them",
+                      cpuBudget::assignedThreads);
+        Metrics.gauge("encode_fps", "Frames per second each encoding job last reported", "job",
+                      () -> encodingFps(db, statsRegistry));
+        Metrics.gauge("encode_fps_all", "Frames per second of every encoding job added together",
+                      () -> encodingFps(db, statsRegistry).values().stream().mapToDouble(fps -> fps).sum());
+    }
+
+    private static Map<String, Integer> perPool(ToIntFunction<JobScheduler.Pool> count) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (JobScheduler.Pool pool : JobScheduler.Pool.values()) {
+            counts.put(pool.name(), count.applyAsInt(pool));
+        }
+        return counts;
+    }
+
+    private static Map<String, Double> encodingFps(Database db, StatsRegistry statsRegistry) {
+        Map<String, Double> fps = new LinkedHashMap<>();
+        for (Job job : db.jobs(EnumSet.of(JobStatus.ENCODING), 0, Integer.MAX_VALUE)) {
+            fps.put(job.jobID, statsRegistry.latestStats(job).fps);
+        }
+        return fps;
+    }
+
+    private static void get(String path, Route route) {
+        Spark.get(path, timed("GET", path, route));
+    }
+
+    private static void get(String path, TemplateViewRoute route, TemplateEngine engine) {
+        Spark.get(path, timed("GET", path, (req, res) -> engine.render(route.handle(req, res))));
+    }
+
+    private static void post(String path, Route route) {
+        Spark.post(path, timed("POST", path, route));
+    }
+
+    /**
+     * Records how long the route takes to handle each request, template rendering included, under its path pattern
+     * rather than the actual path so every job's page is counted together. Followed logs are left out: they stream
+     * until the job finishes, which would swamp the histogram's buckets.
+     */
+    private static Route timed(String method, String path, Route route) {
+        return (req, res) -> {
+            long start = System.nanoTime();
+            try {
+                return route.handle(req, res);
+            } finally {
+                if (req.queryParams("follow") == null) {
+                    HTTP_SECONDS.observeSince(start, method, path);
+                }
+            }
+        };
+    }
+
+    private static Runnable createWorker(File tempDir, String ffmpegPath, long checkpointMillis,
+                                         JobScheduler scheduler, ProcessSupervisor processSupervisor,
+                                         CpuBudget cpuBudget, InputProber inputProber, StatsRegistry statsRegistry,
                                          Database db, Job job) {
-        if (job.goFast) {
-            return new FFMpegConcatWorker(db, runningProcesses, job.jobID, tempDir.getAbsolutePath(), ffmpegPath);
+        if (job.mode != EncodingMode.REENCODE) { // including automatic jobs, since most recordings can be copied
+            return new FFMpegConcatWorker(db, processSupervisor, inputProber, statsRegistry, cpuBudget, job.jobID,
+                                          tempDir.getAbsolutePath(), ffmpegPath, reencode -> scheduler.requeue(
+                    reencode, createWorker(tempDir, ffmpegPath, checkpointMillis, scheduler, processSupervisor,
+                                           cpuBudget, inputProber, statsRegistry, db, reencode)));
         } else {
-            return new FFMpegFilterGraphWorker(db, runningProcesses, job.jobID, tempDir.getAbsolutePath(), ffmpegPath);
+            return new FFMpegFilterGraphWorker(db, processSupervisor, inputProber, statsRegistry, cpuBudget,
+                                               job.jobID, tempDir.getAbsolutePath(), ffmpegPath, checkpointMillis);
+        }
+    }
+
+    /**
+     * Removes any intermediate files (e.g. checkpointed segments) a job left behind in the temp directory.
+     */
+    private static void deleteTempFiles(File tempDir, String jobID) {
+        File[] tempFiles = tempDir.listFiles((dir, name) -> name.startsWith(jobID));
+        if (tempFiles == null) {
+            return;
+        }
+        for (File tempFile : tempFiles) {
+            if (!tempFile.delete()) {
+                System.out.println("Couldn't delete temp file " + tempFile);
+            }
         }
     }
 
@@ -230,17 +581,29 @@ public class MovieServer {
         return Integer.parseInt(val.trim());
     }
 
-    private static FrontendFile frontendFile(File f) {
-        return frontendFile(f, null);
+    private static LocalDate parseNullableDate(String val) {
+        if (val == null || val.trim().isEmpty()) {
+            return null;
+        }
+        return LocalDate.parse(val.trim());
+    }
+
+    /**
+     * @return the library search's parameters, other than the page, for the pager's links
+     */
+    private static String searchQuery(QueryParamsMap params) {
+        StringBuilder query = new StringBuilder();
+        for (String param : Arrays.asList("q", "from", "to", "minMinutes", "maxMinutes")) {
+            String value = params.get(param).value();
+            if (value != null && !value.isEmpty()) {
+                query.append('&').append(param).append('=').append(UrlEscapers.urlFormParameterEscaper().escape(value));
+            }
+        }
+        return query.toString();
     }
 
-    private static FrontendFile frontendFile(File f, String alternateName) {
-        String url = fromPath(f.getAbsolutePath());
-        String path = f.getAbsolutePath();
-        String name = alternateName != null ? alternateName : f.getName();
-        boolean isDirectory = f.isDirectory();
-        boolean isWtv = f.getName().endsWith(".wtv");
-        return new FrontendFile(url, path, name, isDirectory, isWtv);
+    private static FrontendFile frontendFile(String path, String name, boolean isDirectory) {
+        return new FrontendFile(fromPath(path), path, name, isDirectory, path.endsWith(".wtv"));
     }
 
     private static String toPath(String url) {
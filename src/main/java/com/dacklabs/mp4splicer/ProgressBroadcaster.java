@@ -0,0 +1,125 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.ProgressEvent;
+import com.dacklabs.mp4splicer.workers.JobScheduler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes job progress to browsers as Server-Sent Events. Subscribers are only told which jobs changed; the event
+ * itself is built from the current job and stats when it's sent. However fast ffmpeg reports progress, each client
+ * gets at most one event per job per {@link #MIN_EVENT_INTERVAL_MILLIS}, always carrying the latest state.
+ */
+public class ProgressBroadcaster {
+
+    private static final long MIN_EVENT_INTERVAL_MILLIS = 1000;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 15000;
+    private static final int MAX_SUBSCRIBERS = 50;
+    private static final ObjectMapper om = new ObjectMapper();
+
+    private final Database db;
+    private final StatsRegistry statsRegistry;
+    private final JobScheduler scheduler;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    public ProgressBroadcaster(Database db, StatsRegistry statsRegistry, JobScheduler scheduler) {
+        this.db = db;
+        this.statsRegistry = statsRegistry;
+        this.scheduler = scheduler;
+    }
+
+    public void jobChanged(String jobID) {
+        for (Subscription subscription : subscriptions) {
+            subscription.markChanged(jobID);
+        }
+    }
+
+    /**
+     * Streams events to the response until the client goes away, or until the job finishes if a job ID is given.
+     *
+     * @param jobID the job to watch, or null to watch every job
+     */
+    public void stream(String jobID, HttpServletResponse response) throws IOException, InterruptedException {
+        if (subscriptions.size() >= MAX_SUBSCRIBERS) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many progress streams open");
+            return;
+        }
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        OutputStream out = response.getOutputStream();
+
+        Subscription subscription = new Subscription(jobID);
+        subscriptions.add(subscription);
+        try {
+            if (jobID != null) {
+                subscription.markChanged(jobID); // send the current state straight away
+            }
+            long lastSent = 0;
+            boolean finished = false;
+            while (!finished) {
+                long sinceLastSend = System.currentTimeMillis() - lastSent;
+                if (sinceLastSend < MIN_EVENT_INTERVAL_MILLIS) {
+                    Thread.sleep(MIN_EVENT_INTERVAL_MILLIS - sinceLastSend);
+                }
+                Set<String> changed = subscription.awaitChanges(HEARTBEAT_INTERVAL_MILLIS);
+                if (changed.isEmpty()) {
+                    out.write(": heartbeat\n\n".getBytes(Charsets.UTF_8));
+                }
+                for (String changedJobID : changed) {
+                    ProgressEvent event = currentEvent(changedJobID);
+                    String data = "event: progress\ndata: " + om.writeValueAsString(event) + "\n\n";
+                    out.write(data.getBytes(Charsets.UTF_8));
+                    finished |= jobID != null && event.isFinal();
+                }
+                out.flush();
+                lastSent = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            // the browser went away, this is normal
+        } finally {
+            subscriptions.remove(subscription);
+        }
+    }
+
+    private ProgressEvent currentEvent(String jobID) {
+        Job job = db.getJob(jobID);
+        if (job == null) {
+            return ProgressEvent.deleted(jobID);
+        }
+        return ProgressEvent.of(job, statsRegistry.latestStats(job), scheduler.queuePositions().get(jobID));
+    }
+
+    private static class Subscription {
+        private final String jobID;
+        private final Set<String> changedJobIDs = new LinkedHashSet<>();
+
+        private Subscription(String jobID) {
+            this.jobID = jobID;
+        }
+
+        private synchronized void markChanged(String changedJobID) {
+            if (jobID == null || jobID.equals(changedJobID)) {
+                changedJobIDs.add(changedJobID);
+                notifyAll();
+            }
+        }
+
+        private synchronized Set<String> awaitChanges(long timeoutMillis) throws InterruptedException {
+            if (changedJobIDs.isEmpty()) {
+                wait(timeoutMillis);
+            }
+            Set<String> changed = new LinkedHashSet<>(changedJobIDs);
+            changedJobIDs.clear();
+            return changed;
+        }
+    }
+}
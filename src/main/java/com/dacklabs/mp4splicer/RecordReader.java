@@ -0,0 +1,142 @@
+package com.dacklabs.mp4splicer;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+
+/**
+ * Reads records written by {@link RecordWriter}. Call {@link #next()} to move to each field in turn, then one of the
+ * read methods for the fields you know about and {@link #skip()} for the rest.
+ */
+final class RecordReader {
+    private final byte[] buffer;
+    private int position;
+    private final int limit;
+    private int tag;
+    private int wireType;
+
+    RecordReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    private RecordReader(byte[] buffer, int position, int limit) {
+        this.buffer = buffer;
+        this.position = position;
+        this.limit = limit;
+    }
+
+    /**
+     * @return false once every field in the record has been read
+     */
+    boolean next() throws IOException {
+        if (position >= limit) {
+            return false;
+        }
+        long key = readVarint();
+        tag = (int) (key >>> 3);
+        wireType = (int) (key & 0x7);
+        return true;
+    }
+
+    int tag() {
+        return tag;
+    }
+
+    long readLong() throws IOException {
+        expect(RecordWriter.VARINT);
+        return readVarint();
+    }
+
+    long readSignedLong() throws IOException {
+        long value = readLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readInteger() throws IOException {
+        return (int) readSignedLong();
+    }
+
+    boolean readBoolean() throws IOException {
+        return readLong() != 0;
+    }
+
+    String readString() throws IOException {
+        int length = readLength();
+        String value = new String(buffer, position, length, Charsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * @param unknown what to use for a constant this version doesn't have, e.g. one added by a newer version
+     */
+    <E extends Enum<E>> E readEnum(Class<E> type, E unknown) throws IOException {
+        String name = readString();
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return unknown;
+        }
+    }
+
+    RecordReader readRecord() throws IOException {
+        int length = readLength();
+        RecordReader record = new RecordReader(buffer, position, position + length);
+        position += length;
+        return record;
+    }
+
+    /**
+     * Skips a field this version doesn't know about, e.g. one added by a newer version.
+     */
+    void skip() throws IOException {
+        switch (wireType) {
+            case RecordWriter.VARINT:
+                readVarint();
+                break;
+            case RecordWriter.FIXED64:
+                checkAvailable(8);
+                position += 8;
+                break;
+            case RecordWriter.LENGTH_DELIMITED:
+                position += readLength();
+                break;
+            default:
+                throw new IOException("Unknown wire type " + wireType + " for field " + tag);
+        }
+    }
+
+    private int readLength() throws IOException {
+        expect(RecordWriter.LENGTH_DELIMITED);
+        long length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw new IOException("Field " + tag + " runs past the end of its record");
+        }
+        return (int) length;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            checkAvailable(1);
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in field " + tag);
+    }
+
+    private void expect(int expectedWireType) throws IOException {
+        if (wireType != expectedWireType) {
+            throw new IOException("Field " + tag + " has wire type " + wireType + ", expected " + expectedWireType);
+        }
+    }
+
+    private void checkAvailable(int bytes) throws IOException {
+        if (position + bytes > limit) {
+            throw new IOException("Record is truncated");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.dacklabs.mp4splicer;
+
+import com.google.common.base.Charsets;
+
+import java.util.Arrays;
+
+/**
+ * Writes tagged fields in the same wire format as protocol buffers: every field starts with its tag and wire type,
+ * numbers are varints and strings and nested records are length-prefixed. A reader can skip any field it doesn't
+ * know, so fields can be added without breaking old data, and a null value is written by leaving its field out.
+ */
+final class RecordWriter {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+
+    private byte[] buffer = new byte[512];
+    private int position = 0;
+
+    void writeLong(int tag, long value) {
+        writeKey(tag, VARINT);
+        writeVarint(value);
+    }
+
+    /**
+     * Zig-zag encodes the value first so small negative numbers stay small.
+     */
+    void writeSignedLong(int tag, long value) {
+        writeLong(tag, (value << 1) ^ (value >> 63));
+    }
+
+    void writeInteger(int tag, Integer value) {
+        if (value != null) {
+            writeSignedLong(tag, value);
+        }
+    }
+
+    void writeBoolean(int tag, boolean value) {
+        writeLong(tag, value ? 1 : 0);
+    }
+
+    void writeString(int tag, String value) {
+        if (value == null) {
+            return;
+        }
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        writeKey(tag, LENGTH_DELIMITED);
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    void writeEnum(int tag, Enum<?> value) {
+        writeString(tag, value != null ? value.name() : null); // by name, so constants can be added or reordered
+    }
+
+    /**
+     * Starts a nested record. Write its fields, then pass the returned mark to {@link #endRecord(int)}.
+     */
+    int startRecord(int tag) {
+        writeKey(tag, LENGTH_DELIMITED);
+        return position;
+    }
+
+    /**
+     * Prefixes the nested record with its length, which is only known now that it has been written.
+     */
+    void endRecord(int mark) {
+        int length = position - mark;
+        int prefixSize = varintSize(length);
+        ensureCapacity(prefixSize);
+        System.arraycopy(buffer, mark, buffer, mark + prefixSize, length);
+        int end = position + prefixSize;
+        position = mark;
+        writeVarint(length);
+        position = end;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void writeKey(int tag, int wireType) {
+        writeVarint((tag << 3) | wireType);
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
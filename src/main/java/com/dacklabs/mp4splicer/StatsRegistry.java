@@ -0,0 +1,124 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.metrics.Counter;
+import com.dacklabs.mp4splicer.metrics.Metrics;
+import com.dacklabs.mp4splicer.model.EncodingStats;
+import com.dacklabs.mp4splicer.model.Job;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the most recent encoding stats for every job in memory. Running jobs are kept up to date by their log
+ * watchers; for anything else (e.g. jobs that ran before a restart) the last line of the stats log is read once.
+ */
+public class StatsRegistry {
+
+    private static final int TAIL_CHUNK_BYTES = 4096;
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final Counter BYTES_READ =
+            Metrics.counter("stats_log_bytes_read_total", "Bytes read back from stats logs to find their last line");
+
+    private final ConcurrentMap<String, EncodingStats> latestStats = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param listener called with the job ID whenever a running job reports new stats
+     */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+
+    public void update(String jobID, EncodingStats stats) {
+        latestStats.put(jobID, stats);
+        for (Consumer<String> listener : listeners) {
+            listener.accept(jobID);
+        }
+    }
+
+    public void remove(String jobID) {
+        latestStats.remove(jobID);
+    }
+
+    /**
+     * @return the stats the job last reported while running, without looking at its stats log
+     */
+    public EncodingStats reportedStats(String jobID) {
+        EncodingStats stats = latestStats.get(jobID);
+        return stats != null ? stats : EncodingStats.none();
+    }
+
+    public EncodingStats latestStats(Job job) {
+        EncodingStats stats = latestStats.get(job.jobID);
+        if (stats != null) {
+            return stats;
+        }
+        stats = readLastStats(Paths.get(job.jobStatsFile()));
+        EncodingStats raced = latestStats.putIfAbsent(job.jobID, stats);
+        return raced != null ? raced : stats;
+    }
+
+    /**
+     * Reads backwards from the end of a stats log until it finds the last complete line.
+     */
+    static EncodingStats readLastStats(Path statsFile) {
+        try (FileChannel channel = FileChannel.open(statsFile, StandardOpenOption.READ)) {
+            long end = channel.size();
+            int chunkSize = TAIL_CHUNK_BYTES;
+            while (end > 0) {
+                long start = Math.max(0, end - chunkSize);
+                byte[] bytes = readFully(channel, start, (int) (end - start));
+                BYTES_READ.add(bytes.length);
+                int lineEnd = bytes.length;
+                while (lineEnd > 0 && (bytes[lineEnd - 1] == '\n' || bytes[lineEnd - 1] == '\r')) {
+                    lineEnd--;
+                }
+                if (lineEnd == 0) {
+                    end = start; // nothing but newlines in this window
+                    continue;
+                }
+                int lineStart = lineEnd;
+                while (lineStart > 0 && bytes[lineStart - 1] != '\n') {
+                    lineStart--;
+                }
+                if (lineStart == 0 && start > 0) {
+                    chunkSize *= 2; // the last line is longer than our window, widen it and try again
+                    continue;
+                }
+                String line = new String(bytes, lineStart, lineEnd - lineStart, Charsets.UTF_8);
+                return om.readValue(line, EncodingStats.class);
+            }
+        } catch (NoSuchFileException nsfe) {
+            // do nothing, this is normal for jobs that haven't started encoding
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return EncodingStats.none();
+    }
+
+    private static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.array();
+    }
+}
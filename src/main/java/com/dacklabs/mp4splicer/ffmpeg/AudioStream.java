@@ -8,15 +8,18 @@ public class AudioStream {
     public final String codec;
     public final int hz;
     public final int bitrate;
+    public final String layout;
 
     @JsonCreator
     public AudioStream(@JsonProperty("streamNumber") int streamNumber,
                        @JsonProperty("codec") String codec,
                        @JsonProperty("hz") int hz,
-                       @JsonProperty("bitrate") int bitrate) {
+                       @JsonProperty("bitrate") int bitrate,
+                       @JsonProperty("layout") String layout) {
         this.streamNumber = streamNumber;
         this.codec = codec;
         this.hz = hz;
         this.bitrate = bitrate;
+        this.layout = layout;
     }
 }
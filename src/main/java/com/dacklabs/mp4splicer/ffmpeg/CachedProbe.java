@@ -0,0 +1,29 @@
+package com.dacklabs.mp4splicer.ffmpeg;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Probe results for a file, along with the size and modification time the file had when it was probed.
+ */
+public class CachedProbe {
+    public final String path;
+    public final long size;
+    public final long lastModified;
+    public final InputFileStats stats;
+
+    @JsonCreator
+    public CachedProbe(@JsonProperty("path") String path,
+                       @JsonProperty("size") long size,
+                       @JsonProperty("lastModified") long lastModified,
+                       @JsonProperty("stats") InputFileStats stats) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.stats = stats;
+    }
+
+    public boolean isCurrentFor(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+}
@@ -0,0 +1,18 @@
+package com.dacklabs.mp4splicer.ffmpeg;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.List;
+
+public class IncompatibleStreamsException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public final ImmutableList<String> problems;
+
+    public IncompatibleStreamsException(List<String> problems) {
+        super("The inputs can't be joined: " + Joiner.on("; ").join(problems));
+        this.problems = ImmutableList.copyOf(problems);
+    }
+}
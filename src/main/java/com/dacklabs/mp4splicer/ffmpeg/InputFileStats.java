@@ -1,5 +1,7 @@
 package com.dacklabs.mp4splicer.ffmpeg;
 
+import com.dacklabs.mp4splicer.metrics.Histogram;
+import com.dacklabs.mp4splicer.metrics.Metrics;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableList;
@@ -7,8 +9,12 @@ import com.google.common.collect.ImmutableMap;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 import java.util.regex.Matcher;
@@ -16,6 +22,11 @@ import java.util.regex.Pattern;
 
 public class InputFileStats {
 
+    /**
+     * Bumped whenever {@link #fromLog} changes what it reads, so stats cached by an older version get probed again.
+     */
+    public static final int PARSER_VERSION = 1;
+
     public final int inputNumber;
     public final String fileName;
     public final ImmutableMap<String, String> metadata;
@@ -45,6 +56,11 @@ public class InputFileStats {
                                   Duration.ofDays(0), -1);
     }
 
+    private static final Path NICE = Paths.get("/usr/bin/nice");
+    private static final Histogram PROBE_SECONDS =
+            Metrics.histogram("probe_seconds", "Time taken for ffmpeg to read an input's streams",
+                              new double[]{0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60}, "priority");
+
     private static enum ReaderState {
         BEGINNING, METADATA, DURATION, STREAMS
     }
@@ -55,7 +71,21 @@ public class InputFileStats {
     }
 
     public static InputFileStats probeStats(String ffmpegPath, String inputFile) throws IOException, InterruptedException {
-        ProcessBuilder ffmpegBuilder = new ProcessBuilder().command(ffmpegPath, "-i", "\"" + inputFile + "\"");
+        return probeStats(ffmpegPath, inputFile, false);
+    }
+
+    /**
+     * @param lowPriority run ffmpeg with {@code nice}, where there is one, so probing doesn't slow down running jobs
+     */
+    public static InputFileStats probeStats(String ffmpegPath, String inputFile, boolean lowPriority)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        List<String> command = new ArrayList<>();
+        if (lowPriority && Files.isExecutable(NICE)) {
+            command.addAll(Arrays.asList(NICE.toString(), "-n", "19"));
+        }
+        command.addAll(Arrays.asList(ffmpegPath, "-i", "\"" + inputFile + "\""));
+        ProcessBuilder ffmpegBuilder = new ProcessBuilder().command(command);
         Process ffmpeg = ffmpegBuilder.start();
         Scanner s = new Scanner(ffmpeg.getErrorStream());
 
@@ -63,6 +93,7 @@ public class InputFileStats {
         while (s.hasNextLine()) {
             lines.add(s.nextLine());
         }
+        PROBE_SECONDS.observeSince(start, lowPriority ? "background" : "job");
         return fromLog(lines);
     }
 
@@ -79,7 +110,7 @@ public class InputFileStats {
         Pattern inputPattern = Pattern.compile("Input #(?<inputNumber>\\d),.*, from '(?<fileName>.*)'.*");
         Pattern durationPattern = Pattern.compile(" *Duration: (?<hours>\\d+):(?<minutes>\\d+):(?<seconds>\\d+)\\.(?<subseconds>\\d+), start: [\\d\\.]+, bitrate: (?<bitrate>\\d+) kb/s.*");
         Pattern audioPattern = Pattern.compile(" *Stream #\\d:(?<streamNumber>\\d).*: Audio:" +
-                                                       " (?<codec>.*), (?<hz>\\d+) Hz, .*, .*, (?<bitrate>\\d+) kb/s");
+                                                       " (?<codec>.*), (?<hz>\\d+) Hz, (?<layout>[^,]*), .*, (?<bitrate>\\d+) kb/s");
         Pattern videoPattern = Pattern.compile(" *Stream #\\d:(?<streamNumber>\\d).*: Video: (?<codec>.*),.*," +
                                                        " (?<resolution>\\d+x\\d+).*, (?<fps>[\\d\\.]+) fps,.*");
 
@@ -123,7 +154,8 @@ public class InputFileStats {
                         String codec = audioMatch.group("codec");
                         int hz = Integer.parseInt(audioMatch.group("hz"));
                         int audioBitrate = Integer.parseInt(audioMatch.group("bitrate"));
-                        audioStreams.add(new AudioStream(streamNumber, codec, hz, audioBitrate));
+                        audioStreams.add(new AudioStream(streamNumber, codec, hz, audioBitrate,
+                                                         audioMatch.group("layout")));
                         continue;
                     }
                     Matcher videoMatch = videoPattern.matcher(line);
@@ -135,8 +167,8 @@ public class InputFileStats {
                         videoStreams.add(new VideoStream(streamNumber, codec, resolution, fps));
                         continue;
                     }
-                    if (line.contains("Metadata:")) {
-                        done = true;
+                    if (!line.startsWith(" ")) {
+                        done = true; // past this input's streams, which can each have their own metadata
                     }
                     break;
             }
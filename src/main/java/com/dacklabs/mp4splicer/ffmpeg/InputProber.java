@@ -0,0 +1,74 @@
+package com.dacklabs.mp4splicer.ffmpeg;
+
+import com.dacklabs.mp4splicer.model.InputFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Probes all of a job's inputs concurrently. A shared pool caps how many probes run across the whole server, and each
+ * job is limited to a few of those threads so one large job can't starve the others.
+ */
+public class InputProber {
+
+    private final ProbeCache probeCache;
+    private final ExecutorService probePool;
+    private final int perJobLimit;
+
+    public InputProber(ProbeCache probeCache, int globalLimit, int perJobLimit) {
+        this.probeCache = probeCache;
+        this.probePool = Executors.newFixedThreadPool(Math.max(1, globalLimit));
+        this.perJobLimit = Math.max(1, perJobLimit);
+    }
+
+    /**
+     * @return the inputs with their probed stats, in the same order they were given
+     * @throws ProbeFailedException if any input couldn't be probed, listing every file that failed
+     */
+    public List<InputFile> probeAll(List<InputFile> inputs) throws IOException, InterruptedException {
+        Semaphore jobPermits = new Semaphore(perJobLimit);
+        List<Future<InputFileStats>> probes = new ArrayList<>();
+        try {
+            for (InputFile input : inputs) {
+                jobPermits.acquire();
+                probes.add(probePool.submit(() -> {
+                    try {
+                        return probeCache.probe(input.path);
+                    } finally {
+                        jobPermits.release();
+                    }
+                }));
+            }
+
+            List<InputFile> probed = new ArrayList<>();
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                InputFile input = inputs.get(i);
+                try {
+                    InputFileStats stats = probes.get(i).get();
+                    if (stats.inputNumber < 0) {
+                        failures.add(input.path + ": ffmpeg could not read the file");
+                    } else {
+                        probed.add(input.withProbedStats(stats));
+                    }
+                } catch (ExecutionException e) {
+                    failures.add(input.path + ": " + e.getCause());
+                }
+            }
+            if (!failures.isEmpty()) {
+                throw new ProbeFailedException(failures);
+            }
+            return probed;
+        } finally {
+            for (Future<InputFileStats> probe : probes) {
+                probe.cancel(true); // no-op for finished probes, stops the rest if we were interrupted
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.dacklabs.mp4splicer.ffmpeg;
+
+import com.dacklabs.mp4splicer.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Avoids re-running ffmpeg on inputs that have already been probed. Entries are keyed by canonical path and are only
+ * used while the file's size and modification time are unchanged.
+ */
+public class ProbeCache {
+
+    private final Database db;
+    private final String ffmpegPath;
+
+    public ProbeCache(Database db, String ffmpegPath) {
+        this.db = db;
+        this.ffmpegPath = ffmpegPath;
+    }
+
+    public InputFileStats probe(String inputFile) throws IOException, InterruptedException {
+        return probe(inputFile, false);
+    }
+
+    /**
+     * Probes a file no job is waiting for yet, with ffmpeg at a low priority.
+     */
+    public InputFileStats probeInBackground(String inputFile) throws IOException, InterruptedException {
+        return probe(inputFile, true);
+    }
+
+    /**
+     * @return the file's stats if it has been probed since it last changed, without running ffmpeg
+     */
+    public Optional<InputFileStats> cached(String inputFile) throws IOException {
+        File file = new File(inputFile);
+        if (!file.isFile()) {
+            return Optional.empty();
+        }
+        Optional<CachedProbe> cached = db.getCachedProbe(file.getCanonicalPath());
+        if (cached.isPresent() && cached.get().isCurrentFor(file.length(), file.lastModified())) {
+            return Optional.of(cached.get().stats);
+        }
+        return Optional.empty();
+    }
+
+    private InputFileStats probe(String inputFile, boolean lowPriority) throws IOException, InterruptedException {
+        File file = new File(inputFile);
+        if (!file.isFile()) {
+            // let ffmpeg report why it can't be read
+            return InputFileStats.probeStats(ffmpegPath, inputFile, lowPriority);
+        }
+        String key = file.getCanonicalPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Optional<CachedProbe> cached = db.getCachedProbe(key);
+        if (cached.isPresent()) {
+            if (cached.get().isCurrentFor(size, lastModified)) {
+                return cached.get().stats;
+            }
+            db.invalidateCachedProbe(key);
+        }
+
+        InputFileStats stats = InputFileStats.probeStats(ffmpegPath, inputFile, lowPriority);
+        if (stats.inputNumber >= 0) { // only remember probes where ffmpeg could actually read the file
+            db.saveCachedProbe(new CachedProbe(key, size, lastModified, stats));
+        }
+        return stats;
+    }
+}
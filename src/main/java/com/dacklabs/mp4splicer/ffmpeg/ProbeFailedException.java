@@ -0,0 +1,18 @@
+package com.dacklabs.mp4splicer.ffmpeg;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.List;
+
+public class ProbeFailedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public final ImmutableList<String> failures;
+
+    public ProbeFailedException(List<String> failures) {
+        super("Couldn't probe " + failures.size() + " input(s): " + Joiner.on("; ").join(failures));
+        this.failures = ImmutableList.copyOf(failures);
+    }
+}
@@ -0,0 +1,94 @@
+package com.dacklabs.mp4splicer.ffmpeg;
+
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.InputFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Checks that a job's probed inputs can be joined, and picks the fastest way of doing it. Every mode uses each input's
+ * first video and audio stream, and ffmpeg's concat filter needs every video to be the same size. Copying the video
+ * joins it as it is, so the codecs and frame rates have to match too, and the audio has to be in the same codec since
+ * a single decoder reads all of it. Copying the audio as well also needs the same sample rate and channel layout;
+ * broadcasts often switch between 5.1 and stereo, and re-encoding the audio is what smooths that over.
+ */
+public class StreamCompatibility {
+
+    /**
+     * @throws IncompatibleStreamsException listing everything that stops the inputs being joined
+     */
+    public static void check(List<InputFile> inputs, EncodingMode mode) throws IncompatibleStreamsException {
+        List<String> problems = problems(inputs, mode);
+        if (!problems.isEmpty()) {
+            throw new IncompatibleStreamsException(problems);
+        }
+    }
+
+    /**
+     * @return the quickest mode the inputs can be joined with, or {@link EncodingMode#REENCODE} if they can't be
+     * copied at all
+     */
+    public static EncodingMode fastestMode(List<InputFile> inputs) {
+        for (EncodingMode mode : Arrays.asList(EncodingMode.COPY, EncodingMode.COPY_VIDEO)) { // fastest first
+            if (problems(inputs, mode).isEmpty()) {
+                return mode;
+            }
+        }
+        return EncodingMode.REENCODE;
+    }
+
+    /**
+     * @return what stops the inputs being joined in this mode, or nothing if they can be
+     */
+    public static List<String> problems(List<InputFile> inputs, EncodingMode mode) {
+        List<String> problems = new ArrayList<>();
+        InputFile first = null;
+        for (InputFile input : inputs) {
+            if (input.stats.videoStreams.isEmpty() || input.stats.audioStreams.isEmpty()) {
+                problems.add(input.path + " needs both a video and an audio stream");
+                continue;
+            }
+            if (first == null) {
+                first = input;
+                continue;
+            }
+            VideoStream firstVideo = first.stats.videoStreams.get(0);
+            VideoStream video = input.stats.videoStreams.get(0);
+            AudioStream firstAudio = first.stats.audioStreams.get(0);
+            AudioStream audio = input.stats.audioStreams.get(0);
+            if (!Objects.equals(firstVideo.resolution, video.resolution)) {
+                problems.add(differs(input, first, "is " + video.resolution, firstVideo.resolution));
+            }
+            if (!mode.copiesVideo()) {
+                continue;
+            }
+            if (!Objects.equals(firstVideo.codec, video.codec)) {
+                problems.add(differs(input, first, "has " + video.codec + " video", firstVideo.codec));
+            }
+            if (firstVideo.fps.compareTo(video.fps) != 0) {
+                problems.add(differs(input, first, "is " + video.fps + " fps", firstVideo.fps.toString()));
+            }
+            if (!Objects.equals(firstAudio.codec, audio.codec)) {
+                problems.add(differs(input, first, "has " + audio.codec + " audio", firstAudio.codec));
+            }
+            if (mode != EncodingMode.COPY) {
+                continue;
+            }
+            if (firstAudio.hz != audio.hz) {
+                problems.add(differs(input, first, "has " + audio.hz + " Hz audio", Integer.toString(firstAudio.hz)));
+            }
+            // stats saved with jobs before the layout was recorded don't have one, so only compare when both are known
+            if (firstAudio.layout != null && audio.layout != null && !firstAudio.layout.equals(audio.layout)) {
+                problems.add(differs(input, first, "has " + audio.layout + " audio", firstAudio.layout));
+            }
+        }
+        return problems;
+    }
+
+    private static String differs(InputFile input, InputFile first, String description, String firstValue) {
+        return input.path + " " + description + " but " + first.path + " is " + firstValue;
+    }
+}
@@ -0,0 +1,46 @@
+package com.dacklabs.mp4splicer.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, kept separately for each combination of label values.
+ */
+public class Counter implements Metrics.Metric {
+
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final Map<List<String>, LongAdder> counts = new ConcurrentHashMap<>();
+
+    Counter(String name, String help, List<String> labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+        if (labelNames.isEmpty()) {
+            counts.put(ImmutableList.of(), new LongAdder()); // so it reads zero rather than missing until first used
+        }
+    }
+
+    public void inc(String... labelValues) {
+        add(1, labelValues);
+    }
+
+    public void add(long amount, String... labelValues) {
+        Preconditions.checkArgument(labelValues.length == labelNames.size(), "%s needs labels %s", name, labelNames);
+        counts.computeIfAbsent(ImmutableList.copyOf(labelValues), values -> new LongAdder()).add(amount);
+    }
+
+    @Override
+    public void write(StringBuilder out) {
+        Metrics.header(out, name, help, "counter");
+        for (Map.Entry<List<String>, LongAdder> count : counts.entrySet()) {
+            Metrics.sample(out, name, Metrics.labels(labelNames, count.getKey(), null), count.getValue().sum());
+        }
+    }
+}
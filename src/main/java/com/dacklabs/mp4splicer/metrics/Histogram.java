@@ -0,0 +1,78 @@
+package com.dacklabs.mp4splicer.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Counts observations, usually durations in seconds, into fixed buckets so percentiles can be worked out from them
+ * later. Observing is a couple of atomic adds, cheap enough for every request and every commit.
+ */
+public class Histogram implements Metrics.Metric {
+
+    private final String name;
+    private final String help;
+    private final double[] buckets;
+    private final List<String> labelNames;
+    private final Map<List<String>, Buckets> children = new ConcurrentHashMap<>();
+
+    Histogram(String name, String help, double[] buckets, List<String> labelNames) {
+        for (int i = 1; i < buckets.length; i++) {
+            Preconditions.checkArgument(buckets[i - 1] < buckets[i], "%s's buckets must be in increasing order", name);
+        }
+        this.name = name;
+        this.help = help;
+        this.buckets = buckets.clone();
+        this.labelNames = labelNames;
+        if (labelNames.isEmpty()) {
+            children.put(ImmutableList.of(), new Buckets()); // so it reads zero rather than missing until first used
+        }
+    }
+
+    public void observe(double value, String... labelValues) {
+        Preconditions.checkArgument(labelValues.length == labelNames.size(), "%s needs labels %s", name, labelNames);
+        Buckets child = children.computeIfAbsent(ImmutableList.copyOf(labelValues), values -> new Buckets());
+        int bucket = 0;
+        while (bucket < buckets.length && value > buckets[bucket]) {
+            bucket++;
+        }
+        child.counts.incrementAndGet(bucket);
+        child.sum.add(value);
+    }
+
+    /**
+     * Observes the seconds since {@code startNanos}, a reading of {@link System#nanoTime}.
+     */
+    public void observeSince(long startNanos, String... labelValues) {
+        observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1), labelValues);
+    }
+
+    @Override
+    public void write(StringBuilder out) {
+        Metrics.header(out, name, help, "histogram");
+        for (Map.Entry<List<String>, Buckets> child : children.entrySet()) {
+            List<String> labelValues = child.getKey();
+            Buckets counts = child.getValue();
+            long cumulative = 0;
+            for (int i = 0; i <= buckets.length; i++) {
+                cumulative += counts.counts.get(i);
+                String le = i < buckets.length ? Double.toString(buckets[i]) : "+Inf";
+                Metrics.sample(out, name + "_bucket", Metrics.labels(labelNames, labelValues, le), cumulative);
+            }
+            String labels = Metrics.labels(labelNames, labelValues, null);
+            Metrics.sample(out, name + "_sum", labels, counts.sum.sum());
+            Metrics.sample(out, name + "_count", labels, cumulative);
+        }
+    }
+
+    private class Buckets {
+        final AtomicLongArray counts = new AtomicLongArray(buckets.length + 1); // the last is the +Inf bucket
+        final DoubleAdder sum = new DoubleAdder();
+    }
+}
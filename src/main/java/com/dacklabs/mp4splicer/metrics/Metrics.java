@@ -0,0 +1,116 @@
+package com.dacklabs.mp4splicer.metrics;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Every metric the server keeps, written out in Prometheus' text format for {@code /metrics}. Counters and histograms
+ * are declared as static fields by the classes that update them, and are added here when that class is loaded.
+ * Gauges are read from their owner each time the metrics are scraped, so nothing has to keep them up to date.
+ */
+public class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "mp4splicer_";
+
+    private static final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    interface Metric {
+        void write(StringBuilder out);
+    }
+
+    public static Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(PREFIX + name, help, ImmutableList.copyOf(labelNames)));
+    }
+
+    /**
+     * @param buckets the upper bounds of the buckets, in increasing order; a +Inf bucket is always added
+     */
+    public static Histogram histogram(String name, String help, double[] buckets, String... labelNames) {
+        return register(new Histogram(PREFIX + name, help, buckets, ImmutableList.copyOf(labelNames)));
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        register(out -> {
+            header(out, PREFIX + name, help, "gauge");
+            sample(out, PREFIX + name, "", value.getAsDouble());
+        });
+    }
+
+    /**
+     * A gauge with one label, e.g. a value per job. The supplier returns the current value for every label value.
+     */
+    public static void gauge(String name, String help, String labelName,
+                             Supplier<Map<String, ? extends Number>> values) {
+        register(out -> {
+            header(out, PREFIX + name, help, "gauge");
+            for (Map.Entry<String, ? extends Number> value : values.get().entrySet()) {
+                String labels = labels(ImmutableList.of(labelName), ImmutableList.of(value.getKey()), null);
+                sample(out, PREFIX + name, labels, value.getValue().doubleValue());
+            }
+        });
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : metrics) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    private static <M extends Metric> M register(M metric) {
+        metrics.add(metric);
+        return metric;
+    }
+
+    static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+           .append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Double.POSITIVE_INFINITY) {
+            out.append("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            out.append("-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value); // counts read better without a trailing ".0"
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * @param le the histogram bucket's upper bound, or null if this isn't a bucket
+     * @return the label set, e.g. {@code {pool="ENCODE",le="0.5"}}, or nothing if there are no labels
+     */
+    static String labels(List<String> names, List<String> values, String le) {
+        if (names.isEmpty() && le == null) {
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(names.get(i)).append("=\"").append(escape(values.get(i))).append('"');
+        }
+        if (le != null) {
+            labels.append(names.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
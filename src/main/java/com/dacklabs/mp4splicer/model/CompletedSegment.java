@@ -0,0 +1,42 @@
+package com.dacklabs.mp4splicer.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * Checkpoint for a segment that has been fully encoded, so an interrupted job can pick up where it left off.
+ */
+public class CompletedSegment {
+    public final String inputPath;
+    public final long startMillis;
+    public final Long durationMillis;
+    public final int frames;
+    public final String file;
+
+    @JsonCreator
+    public CompletedSegment(@JsonProperty("inputPath") String inputPath,
+                            @JsonProperty("startMillis") long startMillis,
+                            @JsonProperty("durationMillis") Long durationMillis,
+                            @JsonProperty("frames") int frames,
+                            @JsonProperty("file") String file) {
+        this.inputPath = inputPath;
+        this.startMillis = startMillis;
+        this.durationMillis = durationMillis;
+        this.frames = frames;
+        this.file = file;
+    }
+
+    public static CompletedSegment of(Segment segment, int frames, String file) {
+        return new CompletedSegment(segment.inputPath, segment.startMillis, segment.durationMillis, frames, file);
+    }
+
+    /**
+     * @return true if this checkpoint covers exactly the given segment, which may have come from a new plan
+     */
+    public boolean covers(Segment segment) {
+        return inputPath.equals(segment.inputPath) && startMillis == segment.startMillis &&
+                Objects.equals(durationMillis, segment.durationMillis);
+    }
+}
@@ -0,0 +1,44 @@
+package com.dacklabs.mp4splicer.model;
+
+/**
+ * How hard x264 works when a job re-encodes its video, trading quality and file size against encoding speed. Balanced
+ * is what every job got before profiles existed: x264's medium preset aiming at the inputs' bitrate. Archive spends
+ * several times the CPU to keep more detail at a constant quality, and fastest gets through a recording in a fraction
+ * of the time, capped at the inputs' bitrate so the file doesn't balloon.
+ */
+public enum EncodeProfile {
+    ARCHIVE("Archive", "slow", "film", 18, 60, false),
+    BALANCED("Balanced", "medium", null, null, 40, false),
+    FASTEST("Fastest", "veryfast", null, 23, 10, true);
+
+    public final String displayName;
+    /**
+     * x264's preset, which sets everything not overridden here.
+     */
+    public final String preset;
+    /**
+     * x264's tune, or null for none.
+     */
+    public final String tune;
+    /**
+     * The constant quality to aim for, lower being better, or null to aim for the inputs' bitrate instead.
+     */
+    public final Integer crf;
+    /**
+     * How many frames x264 looks ahead to plan the bitrate, which costs memory and time but spends bits better.
+     */
+    public final int lookahead;
+    /**
+     * Whether a constant quality encode is still held to the inputs' bitrate.
+     */
+    public final boolean capBitrate;
+
+    EncodeProfile(String displayName, String preset, String tune, Integer crf, int lookahead, boolean capBitrate) {
+        this.displayName = displayName;
+        this.preset = preset;
+        this.tune = tune;
+        this.crf = crf;
+        this.lookahead = lookahead;
+        this.capBitrate = capBitrate;
+    }
+}
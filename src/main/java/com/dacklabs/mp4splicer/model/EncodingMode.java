@@ -0,0 +1,27 @@
+package com.dacklabs.mp4splicer.model;
+
+/**
+ * How a job's inputs are turned into the output.
+ */
+public enum EncodingMode {
+    COPY("Stream copy"),
+    COPY_VIDEO("Copy video, re-encode audio"),
+    REENCODE("Re-encode"),
+    /**
+     * Whichever of the others is fastest for the inputs, decided once they've all been probed.
+     */
+    AUTOMATIC("Automatic");
+
+    public final String displayName;
+
+    EncodingMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * @return whether the video is copied as it is, rather than decoded and encoded again
+     */
+    public boolean copiesVideo() {
+        return this == COPY || this == COPY_VIDEO;
+    }
+}
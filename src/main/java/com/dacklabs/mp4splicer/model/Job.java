@@ -30,15 +30,27 @@ public class Job {
     public final List<InputFile> inputPaths;
     public final LocalDateTime createDate;
     public final LocalDateTime endDate;
-    public final boolean goFast;
+    public final EncodingMode mode;
+    public final JobPriority priority;
+    public final String error;
+    public final int segmentCount;
+    public final List<CompletedSegment> completedSegments;
+    public final JobReport report;
+    public final EncodeProfile profile;
 
-    public static Job create(String jobId, String name, String directory, String outputPath, List<String> inputPaths,
-                             Integer startTrimTimeSeconds, Integer endTrimTimeSeconds, boolean goFast) {
+    /**
+     * @param inputs the inputs in order, with their stats if they've already been probed
+     */
+    public static Job create(String jobId, String name, String directory, String outputPath, List<InputFile> inputs,
+                             Integer startTrimTimeSeconds, Integer endTrimTimeSeconds, EncodingMode mode,
+                             EncodeProfile profile, JobPriority priority, int segmentCount) {
         if (!outputPath.endsWith(".mp4")) {
             outputPath += ".mp4";
         }
         LocalDateTime createDate = LocalDateTime.now();
-        return new Job(jobId, createDate, null, name, directory, FFMPEGFile.create(outputPath), JobStatus.CREATED, Lists.transform(inputPaths, InputFile::create), startTrimTimeSeconds, endTrimTimeSeconds, goFast);
+        return new Job(jobId, createDate, null, name, directory, FFMPEGFile.create(outputPath), JobStatus.CREATED,
+                       ImmutableList.copyOf(inputs), startTrimTimeSeconds, endTrimTimeSeconds, mode, priority, null,
+                       segmentCount, new ArrayList<>(), null, profile);
     }
 
     @JsonCreator
@@ -52,7 +64,13 @@ public class Job {
                @JsonProperty("inputPaths") List<InputFile> inputPaths,
                @JsonProperty("startTrimTimeSeconds") Integer startTrimTimeSeconds,
                @JsonProperty("endTrimTimeSeconds") Integer endTrimTimeSeconds,
-               @JsonProperty("goFast") boolean goFast) {
+               @JsonProperty("mode") EncodingMode mode,
+               @JsonProperty("priority") JobPriority priority,
+               @JsonProperty("error") String error,
+               @JsonProperty("segmentCount") int segmentCount,
+               @JsonProperty("completedSegments") List<CompletedSegment> completedSegments,
+               @JsonProperty("report") JobReport report,
+               @JsonProperty("profile") EncodeProfile profile) {
         this.jobID = jobId;
         this.name = name;
         this.directory = directory;
@@ -63,7 +81,14 @@ public class Job {
         this.endDate = endDate;
         this.startTrimTimeSeconds = startTrimTimeSeconds;
         this.endTrimTimeSeconds = endTrimTimeSeconds;
-        this.goFast = goFast;
+        this.mode = mode != null ? mode : EncodingMode.REENCODE;
+        this.priority = priority != null ? priority : JobPriority.NORMAL; // jobs saved before priorities existed
+        this.error = error;
+        this.segmentCount = Math.max(1, segmentCount);
+        this.completedSegments = Collections.unmodifiableList(
+                completedSegments != null ? completedSegments : new ArrayList<>());
+        this.report = report;
+        this.profile = profile != null ? profile : EncodeProfile.BALANCED; // how jobs were encoded before profiles
     }
 
     public String formatStartTrim() {
@@ -149,11 +174,25 @@ public class Job {
         return String.format("logs/job-%s-%s-stderr.log", jobID, name);
     }
 
+    public String segmentStdErrFile(int segmentIndex) {
+        return String.format("logs/job-%s-%s-segment-%d-stderr.log", jobID, name, segmentIndex);
+    }
+
     public Job updateInput(InputFile newInput) {
         return updateJob(endDate, outputPath, status,
                          Lists.transform(inputPaths, i -> newInput.path.equals(i.path) ? newInput : i));
     }
 
+    public Job updateInputs(List<InputFile> newInputs) {
+        return updateJob(endDate, outputPath, status, newInputs);
+    }
+
+    public Job updateMode(EncodingMode newMode) {
+        return new Job(jobID, createDate, endDate, name, directory, outputPath, status, inputPaths,
+                       startTrimTimeSeconds, endTrimTimeSeconds, newMode, priority, error, segmentCount,
+                       completedSegments, report, profile);
+    }
+
     public Job updateOutputStatus(EncodingStatus newStatus) {
         return updateJob(endDate, outputPath.transitionTo(newStatus), status, inputPaths);
     }
@@ -162,37 +201,70 @@ public class Job {
         return updateJob(endDate, outputPath, JobStatus.ENCODING, inputPaths);
     }
 
-    public Job done() {
-        return updateJob(LocalDateTime.now(), outputPath, JobStatus.DONE, inputPaths);
+    public Job done(JobReport report) {
+        // the checkpointed segments have been joined into the output and deleted, nothing left to resume from
+        return new Job(jobID, createDate, LocalDateTime.now(), name, directory, outputPath, JobStatus.DONE, inputPaths,
+                       startTrimTimeSeconds, endTrimTimeSeconds, mode, priority, error, segmentCount, null, report,
+                       profile);
     }
 
     public Job cancel() {
         return updateJob(endDate, outputPath, JobStatus.CANCELED, inputPaths);
     }
 
+    public Job segmentCompleted(CompletedSegment segment) {
+        List<CompletedSegment> segments = new ArrayList<>(completedSegments);
+        segments.add(segment);
+        return new Job(jobID, createDate, endDate, name, directory, outputPath, status, inputPaths,
+                       startTrimTimeSeconds, endTrimTimeSeconds, mode, priority, error, segmentCount, segments,
+                       report, profile);
+    }
+
+    public Job failed(String error) {
+        return new Job(jobID, createDate, LocalDateTime.now(), name, directory, outputPath, JobStatus.FAILED,
+                       inputPaths, startTrimTimeSeconds, endTrimTimeSeconds, mode, priority, error, segmentCount,
+                       completedSegments, report, profile);
+    }
+
     public Job resetTimer() {
         return new Job(jobID, LocalDateTime.now(), endDate, name, directory, outputPath, status, inputPaths,
-                       startTrimTimeSeconds, endTrimTimeSeconds, goFast);
+                       startTrimTimeSeconds, endTrimTimeSeconds, mode, priority, null, segmentCount,
+                       completedSegments, null, profile);
     }
 
     private Job updateJob(LocalDateTime endDate, FFMPEGFile outputPath, JobStatus status, List<InputFile> inputPaths) {
         return new Job(jobID, createDate, endDate, name, directory, outputPath, status, inputPaths,
-                       startTrimTimeSeconds, endTrimTimeSeconds, goFast);
+                       startTrimTimeSeconds, endTrimTimeSeconds, mode, priority, error, segmentCount,
+                       completedSegments, report, profile);
     }
 
-    private static int statusSort(Job job) {
+    /**
+     * @return the settings that decide how fast the job encodes, for comparing jobs' reports
+     */
+    public String settings() {
+        String settings = mode.displayName;
+        if (!mode.copiesVideo()) {
+            settings += " (" + profile.displayName + ")";
+        }
+        return settings + (segmentCount > 1 ? ", " + segmentCount + " segments" : "");
+    }
+
+    /**
+     * Where jobs with this status go in the job list, higher first.
+     */
+    public static int statusSort(JobStatus status) {
         int sort = 0;
-        if (job.status.equals(JobStatus.CANCELED)) {
+        if (status.equals(JobStatus.CANCELED)) {
             sort -= 20;
         }
-        if (job.status.equals(JobStatus.DONE)) {
+        if (status.equals(JobStatus.DONE)) {
             sort -= 10;
         }
         return sort;
     }
 
     public static Comparator<Job> COMPARATOR = (job1, job2) -> {
-        int diff = statusSort(job2) - statusSort(job1);
+        int diff = statusSort(job2.status) - statusSort(job1.status);
         if (diff != 0) {
             return diff;
         } else {
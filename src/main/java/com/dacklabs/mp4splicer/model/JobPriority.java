@@ -0,0 +1,13 @@
+package com.dacklabs.mp4splicer.model;
+
+public enum JobPriority {
+    HIGH("High"),
+    NORMAL("Normal"),
+    LOW("Low");
+
+    public final String displayName;
+
+    JobPriority(String displayName) {
+        this.displayName = displayName;
+    }
+}
@@ -0,0 +1,133 @@
+package com.dacklabs.mp4splicer.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+/**
+ * What a finished job's run cost: how long each phase took, the CPU time and peak memory of its ffmpeg processes, how
+ * much it read and wrote, and how fast it encoded. A job resumed from checkpoints only reports the run that finished
+ * it, though its video length includes the segments encoded before.
+ */
+public class JobReport {
+    public final long probeMillis;
+    public final long encodeMillis;
+    public final long concatMillis;
+    public final long cpuMillis;
+    public final long peakRssKb;
+    public final long inputBytes;
+    public final long outputBytes;
+    public final double averageFps;
+    public final double p95Fps;
+    public final long mediaMillis;
+
+    @JsonCreator
+    public JobReport(@JsonProperty("probeMillis") long probeMillis,
+                     @JsonProperty("encodeMillis") long encodeMillis,
+                     @JsonProperty("concatMillis") long concatMillis,
+                     @JsonProperty("cpuMillis") long cpuMillis,
+                     @JsonProperty("peakRssKb") long peakRssKb,
+                     @JsonProperty("inputBytes") long inputBytes,
+                     @JsonProperty("outputBytes") long outputBytes,
+                     @JsonProperty("averageFps") double averageFps,
+                     @JsonProperty("p95Fps") double p95Fps,
+                     @JsonProperty("mediaMillis") long mediaMillis) {
+        this.probeMillis = probeMillis;
+        this.encodeMillis = encodeMillis;
+        this.concatMillis = concatMillis;
+        this.cpuMillis = cpuMillis;
+        this.peakRssKb = peakRssKb;
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.averageFps = averageFps;
+        this.p95Fps = p95Fps;
+        this.mediaMillis = mediaMillis;
+    }
+
+    public long wallMillis() {
+        return probeMillis + encodeMillis + concatMillis;
+    }
+
+    /**
+     * @return how many times faster than realtime the job ran, start to finish
+     */
+    public double speedFactor() {
+        return wallMillis() > 0 ? mediaMillis / (double) wallMillis() : 0;
+    }
+
+    /**
+     * @return how many CPU cores ffmpeg kept busy on average while encoding and joining
+     */
+    public double coresUsed() {
+        long ffmpegMillis = encodeMillis + concatMillis;
+        return ffmpegMillis > 0 ? cpuMillis / (double) ffmpegMillis : 0;
+    }
+
+    /**
+     * @return seconds of video produced per second of CPU time, i.e. the speed factor for each core used
+     */
+    public double speedPerCore() {
+        return cpuMillis > 0 ? mediaMillis / (double) cpuMillis : 0;
+    }
+
+    public String formattedProbe() {
+        return Job.formatDuration(Duration.ofMillis(probeMillis));
+    }
+
+    public String formattedEncode() {
+        return Job.formatDuration(Duration.ofMillis(encodeMillis));
+    }
+
+    public String formattedConcat() {
+        return Job.formatDuration(Duration.ofMillis(concatMillis));
+    }
+
+    public String formattedCpuTime() {
+        return Job.formatDuration(Duration.ofMillis(cpuMillis));
+    }
+
+    public String formattedCoresUsed() {
+        return String.format("%.1f", coresUsed());
+    }
+
+    public String formattedPeakRss() {
+        return formatKb(peakRssKb);
+    }
+
+    public String formattedInput() {
+        return formatBytes(inputBytes);
+    }
+
+    public String formattedOutput() {
+        return formatBytes(outputBytes);
+    }
+
+    public String formattedAverageFps() {
+        return formatFps(averageFps);
+    }
+
+    public String formattedP95Fps() {
+        return formatFps(p95Fps);
+    }
+
+    public String formattedSpeedFactor() {
+        return formatFactor(speedFactor());
+    }
+
+    static String formatKb(long kb) {
+        return String.format("%,d MB", kb / 1024);
+    }
+
+    static String formatBytes(long bytes) {
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    static String formatFactor(double factor) {
+        return String.format("%.2fx", factor);
+    }
+
+    static String formatFps(double fps) {
+        return String.format("%.1f", fps);
+    }
+}
@@ -0,0 +1,107 @@
+package com.dacklabs.mp4splicer.model;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The reports of several finished jobs added together, usually every job run with the same settings, so the settings
+ * can be compared by how much video they turn out per CPU second.
+ */
+public class JobReportSummary {
+    public final String settings;
+    public final int jobCount;
+    public final long mediaMillis;
+    public final long wallMillis;
+    public final long cpuMillis;
+    public final long peakRssKb;
+    public final long inputBytes;
+    public final long outputBytes;
+    public final double averageFps;
+    public final double p95Fps;
+
+    public JobReportSummary(String settings, List<JobReport> reports) {
+        long mediaMillis = 0;
+        long wallMillis = 0;
+        long cpuMillis = 0;
+        long peakRssKb = 0;
+        long inputBytes = 0;
+        long outputBytes = 0;
+        double fpsTotal = 0;
+        double p95FpsTotal = 0;
+        for (JobReport report : reports) {
+            mediaMillis += report.mediaMillis;
+            wallMillis += report.wallMillis();
+            cpuMillis += report.cpuMillis;
+            peakRssKb = Math.max(peakRssKb, report.peakRssKb);
+            inputBytes += report.inputBytes;
+            outputBytes += report.outputBytes;
+            fpsTotal += report.averageFps;
+            p95FpsTotal += report.p95Fps;
+        }
+        this.settings = settings;
+        this.jobCount = reports.size();
+        this.mediaMillis = mediaMillis;
+        this.wallMillis = wallMillis;
+        this.cpuMillis = cpuMillis;
+        this.peakRssKb = peakRssKb;
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.averageFps = reports.isEmpty() ? 0 : fpsTotal / reports.size();
+        this.p95Fps = reports.isEmpty() ? 0 : p95FpsTotal / reports.size();
+    }
+
+    public double speedFactor() {
+        return wallMillis > 0 ? mediaMillis / (double) wallMillis : 0;
+    }
+
+    public double speedPerCore() {
+        return cpuMillis > 0 ? mediaMillis / (double) cpuMillis : 0;
+    }
+
+    /**
+     * @return the output's size as a fraction of the input's, e.g. 0.25 for a quarter of the size
+     */
+    public double sizeRatio() {
+        return inputBytes > 0 ? outputBytes / (double) inputBytes : 0;
+    }
+
+    public String formattedMedia() {
+        return Job.formatDuration(Duration.ofMillis(mediaMillis));
+    }
+
+    public String formattedCpuTime() {
+        return Job.formatDuration(Duration.ofMillis(cpuMillis));
+    }
+
+    public String formattedSpeedFactor() {
+        return JobReport.formatFactor(speedFactor());
+    }
+
+    public String formattedSpeedPerCore() {
+        return JobReport.formatFactor(speedPerCore());
+    }
+
+    public String formattedAverageFps() {
+        return JobReport.formatFps(averageFps);
+    }
+
+    public String formattedP95Fps() {
+        return JobReport.formatFps(p95Fps);
+    }
+
+    public String formattedPeakRss() {
+        return JobReport.formatKb(peakRssKb);
+    }
+
+    public String formattedInput() {
+        return JobReport.formatBytes(inputBytes);
+    }
+
+    public String formattedOutput() {
+        return JobReport.formatBytes(outputBytes);
+    }
+
+    public String formattedSizeRatio() {
+        return String.format("%.0f%%", sizeRatio() * 100);
+    }
+}
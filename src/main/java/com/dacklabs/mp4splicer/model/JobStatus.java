@@ -7,11 +7,19 @@ public enum JobStatus {
     CREATED("Created"),
     ENCODING("Encoding"),
     DONE("Completed"),
-    CANCELED("Canceled");
+    CANCELED("Canceled"),
+    FAILED("Failed");
 
     public final String name;
 
     JobStatus(String name) {
         this.name = name;
     }
+
+    /**
+     * @return true if a job with this status will never run again
+     */
+    public boolean isFinal() {
+        return this == DONE || this == CANCELED || this == FAILED;
+    }
 }
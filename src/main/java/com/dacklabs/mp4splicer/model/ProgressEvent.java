@@ -0,0 +1,46 @@
+package com.dacklabs.mp4splicer.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Snapshot of a job's progress, as pushed to browsers watching the job.
+ */
+public class ProgressEvent {
+    public final String jobID;
+    public final boolean deleted;
+    public final JobStatus status;
+    public final String statusName;
+    public final Integer queuePosition;
+    public final double percentComplete;
+    public final int frame;
+    public final double fps;
+    public final String estimatedTimeLeft;
+    public final String bitrate;
+
+    private ProgressEvent(String jobID, boolean deleted, JobStatus status, Integer queuePosition,
+                          double percentComplete, EncodingStats stats) {
+        this.jobID = jobID;
+        this.deleted = deleted;
+        this.status = status;
+        this.statusName = status != null ? status.name : null;
+        this.queuePosition = queuePosition;
+        this.percentComplete = percentComplete;
+        this.frame = stats.frame;
+        this.fps = stats.fps;
+        this.estimatedTimeLeft = stats.estimatedTimeLeft;
+        this.bitrate = stats.bitrate;
+    }
+
+    public static ProgressEvent of(Job job, EncodingStats stats, Integer queuePosition) {
+        return new ProgressEvent(job.jobID, false, job.status, queuePosition, job.percentComplete(stats), stats);
+    }
+
+    public static ProgressEvent deleted(String jobID) {
+        return new ProgressEvent(jobID, true, null, null, 0, EncodingStats.none());
+    }
+
+    @JsonIgnore
+    public boolean isFinal() {
+        return deleted || status.isFinal();
+    }
+}
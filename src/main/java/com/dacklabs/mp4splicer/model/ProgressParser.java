@@ -0,0 +1,232 @@
+package com.dacklabs.mp4splicer.model;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Picks the progress fields out of ffmpeg's stderr without regexes or per-line garbage. Feed it raw bytes as they're
+ * read; lines (ffmpeg ends progress lines with a carriage return) are collected in a reused buffer and only the
+ * numeric fields are parsed. The time and bitrate are kept as bytes and only turned into strings by {@link #stats()}.
+ * <p>
+ * Accepts the same lines as {@link StatsMatcher}. Not thread safe.
+ */
+public class ProgressParser {
+    private static final int MAX_LINE_BYTES = 1024; // progress lines are ~100 bytes, anything longer isn't one
+    private static final int MAX_FIELD_BYTES = 32;
+
+    private static final byte[] FRAME = ascii("frame=");
+    private static final byte[] FPS = ascii("fps=");
+    private static final byte[] SIZE = ascii("size=");
+    private static final byte[] KB = ascii("kB");
+    private static final byte[] TIME = ascii("time=");
+    private static final byte[] BITRATE = ascii(" bitrate=");
+
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private int lineLength = 0;
+    private boolean lineTooLong = false;
+
+    private int frame;
+    private double fps;
+    private long sizeInKb;
+    private final byte[] time = new byte[MAX_FIELD_BYTES];
+    private int timeLength;
+    private final byte[] bitrate = new byte[MAX_FIELD_BYTES];
+    private int bitrateLength;
+    private boolean hasStats = false;
+
+    /**
+     * Scans a chunk of stderr.
+     *
+     * @return true if at least one progress line was completed in this chunk
+     */
+    public boolean accept(byte[] bytes, int offset, int length) {
+        boolean parsed = false;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b == '\r' || b == '\n') {
+                if (!lineTooLong && lineLength > 0 && parseLine()) {
+                    parsed = true;
+                }
+                lineLength = 0;
+                lineTooLong = false;
+            } else if (lineLength < MAX_LINE_BYTES) {
+                line[lineLength++] = b;
+            } else {
+                lineTooLong = true;
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses whatever is left over once the stream has ended without a final line break.
+     *
+     * @return true if it was a progress line
+     */
+    public boolean finish() {
+        boolean parsed = !lineTooLong && lineLength > 0 && parseLine();
+        lineLength = 0;
+        lineTooLong = false;
+        return parsed;
+    }
+
+    public boolean hasStats() {
+        return hasStats;
+    }
+
+    /**
+     * @return the most recently parsed progress, or {@link EncodingStats#none()} if there hasn't been any yet
+     */
+    public EncodingStats stats() {
+        if (!hasStats) {
+            return EncodingStats.none();
+        }
+        return new EncodingStats(frame, fps, sizeInKb + "kB", new String(time, 0, timeLength, Charsets.US_ASCII),
+                                 new String(bitrate, 0, bitrateLength, Charsets.US_ASCII), 0);
+    }
+
+    /**
+     * Parses a single line on its own, for callers that already have one in hand.
+     *
+     * @return the stats on that line, or null if it isn't a progress line
+     */
+    public EncodingStats parse(byte[] bytes, int offset, int length) {
+        lineLength = 0;
+        lineTooLong = false;
+        accept(bytes, offset, length);
+        return finish() ? stats() : null;
+    }
+
+    /**
+     * Only commits the fields once the whole line has matched, so a garbled line never leaves half-updated stats.
+     */
+    private boolean parseLine() {
+        int pos = indexOf(FRAME, 0);
+        if (pos < 0) {
+            return false;
+        }
+        pos = skipSpaces(pos + FRAME.length);
+        int digitsStart = pos;
+        long newFrame = 0;
+        while (pos < lineLength && isDigit(line[pos])) {
+            newFrame = newFrame * 10 + (line[pos++] - '0');
+        }
+        if (pos == digitsStart || pos >= lineLength || line[pos] != ' ') {
+            return false;
+        }
+
+        pos = indexOf(FPS, pos);
+        if (pos < 0) {
+            return false;
+        }
+        pos = skipSpaces(pos + FPS.length);
+        digitsStart = pos;
+        long whole = 0;
+        long fraction = 0;
+        long fractionScale = 1;
+        boolean seenPoint = false;
+        while (pos < lineLength && (isDigit(line[pos]) || line[pos] == '.')) {
+            byte b = line[pos++];
+            if (b == '.') {
+                seenPoint = true;
+            } else if (seenPoint) {
+                fraction = fraction * 10 + (b - '0');
+                fractionScale *= 10;
+            } else {
+                whole = whole * 10 + (b - '0');
+            }
+        }
+        if (pos == digitsStart) {
+            return false;
+        }
+
+        pos = indexOf(SIZE, pos);
+        if (pos < 0) {
+            return false;
+        }
+        pos = skipSpaces(pos + SIZE.length);
+        digitsStart = pos;
+        long newSize = 0;
+        while (pos < lineLength && isDigit(line[pos])) {
+            newSize = newSize * 10 + (line[pos++] - '0');
+        }
+        if (pos == digitsStart || !startsWith(KB, pos)) {
+            return false;
+        }
+        pos += KB.length;
+        if (pos >= lineLength || line[pos] != ' ' || !startsWith(TIME, pos + 1)) {
+            return false;
+        }
+        int timeStart = pos + 1 + TIME.length;
+
+        int bitrateKey = lastIndexOf(BITRATE, timeStart);
+        if (bitrateKey < 0) {
+            return false;
+        }
+        int bitrateStart = bitrateKey + BITRATE.length;
+        int bitrateEnd = bitrateStart;
+        while (bitrateEnd < lineLength && line[bitrateEnd] != ' ') {
+            bitrateEnd++;
+        }
+        if (bitrateKey - timeStart > MAX_FIELD_BYTES || bitrateEnd - bitrateStart > MAX_FIELD_BYTES) {
+            return false;
+        }
+
+        frame = (int) newFrame;
+        fps = whole + (double) fraction / fractionScale;
+        sizeInKb = newSize;
+        timeLength = bitrateKey - timeStart;
+        System.arraycopy(line, timeStart, time, 0, timeLength);
+        bitrateLength = bitrateEnd - bitrateStart;
+        System.arraycopy(line, bitrateStart, bitrate, 0, bitrateLength);
+        hasStats = true;
+        return true;
+    }
+
+    private int skipSpaces(int pos) {
+        while (pos < lineLength && line[pos] == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private boolean startsWith(byte[] key, int pos) {
+        if (pos + key.length > lineLength) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (line[pos + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] key, int from) {
+        for (int pos = from; pos + key.length <= lineLength; pos++) {
+            if (startsWith(key, pos)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The time is everything up to the last " bitrate=", same as the greedy group in {@link StatsMatcher}.
+     */
+    private int lastIndexOf(byte[] key, int from) {
+        for (int pos = lineLength - key.length; pos >= from; pos--) {
+            if (startsWith(key, pos)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(Charsets.US_ASCII);
+    }
+}
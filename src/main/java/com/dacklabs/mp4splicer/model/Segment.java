@@ -0,0 +1,93 @@
+package com.dacklabs.mp4splicer.model;
+
+import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A slice of one input file that can be encoded on its own. Splitting a job's timeline into segments lets several
+ * ffmpeg processes encode it at once; the encoded segments are then stream-copied together.
+ */
+public class Segment {
+    private static final long MIN_SEGMENT_MILLIS = 60 * 1000;
+
+    public final int index;
+    public final int inputIndex;
+    public final String inputPath;
+    public final long startMillis;
+    public final Long durationMillis; // null means "until the end of the input"
+
+    public Segment(int index, int inputIndex, String inputPath, long startMillis, Long durationMillis) {
+        this.index = index;
+        this.inputIndex = inputIndex;
+        this.inputPath = inputPath;
+        this.startMillis = startMillis;
+        this.durationMillis = durationMillis;
+    }
+
+    public String formattedStart() {
+        return BigDecimal.valueOf(startMillis, 3).toPlainString();
+    }
+
+    public String formattedDuration() {
+        return BigDecimal.valueOf(durationMillis, 3).toPlainString();
+    }
+
+    /**
+     * Splits the part of the job's timeline that survives trimming into roughly {@code segmentCount} segments of
+     * similar length, none longer than {@code maxSegmentMillis} (if positive) so that an interrupted job never loses
+     * more than one segment's worth of work. Segments never cross input files and boundaries fall on whole seconds.
+     * Each segment is seeked to on input, so ffmpeg decodes from the preceding keyframe and the cut is frame accurate,
+     * and every encoded segment starts on a keyframe of its own so the results can be joined without re-encoding.
+     */
+    public static List<Segment> plan(Job job, int segmentCount, long maxSegmentMillis) {
+        List<InputFile> inputs = job.inputPaths;
+        List<long[]> ranges = new ArrayList<>(); // {inputIndex, startMillis, endMillis}, endMillis -1 when unknown
+        long totalMillis = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            InputFileStats stats = inputs.get(i).stats;
+            long start = i == 0 && job.startTrimTimeSeconds != null ? job.startTrimTimeSeconds * 1000L : 0;
+            long end = stats.duration != null ? stats.duration.toMillis() : -1;
+            if (i == inputs.size() - 1 && job.endTrimTimeSeconds != null) {
+                long trimmedEnd = start + job.endTrimTimeSeconds * 1000L;
+                end = end < 0 ? trimmedEnd : Math.min(end, trimmedEnd);
+            }
+            if (end >= 0 && end <= start) {
+                continue; // trimmed away entirely
+            }
+            ranges.add(new long[]{i, start, end});
+            totalMillis += end >= 0 ? end - start : 0;
+        }
+
+        long targetMillis = roundUpToSecond(totalMillis / Math.max(1, segmentCount));
+        if (maxSegmentMillis > 0) {
+            targetMillis = Math.min(targetMillis, maxSegmentMillis);
+        }
+        targetMillis = Math.max(MIN_SEGMENT_MILLIS, targetMillis);
+        List<Segment> segments = new ArrayList<>();
+        for (long[] range : ranges) {
+            int inputIndex = (int) range[0];
+            String path = inputs.get(inputIndex).path;
+            long start = range[1];
+            long end = range[2];
+            if (end < 0) {
+                segments.add(new Segment(segments.size(), inputIndex, path, start, null)); // can't split, unknown length
+                continue;
+            }
+            long length = end - start;
+            int pieces = (int) Math.max(1, (length + targetMillis - 1) / targetMillis);
+            long pieceMillis = roundUpToSecond((length + pieces - 1) / pieces);
+            for (long pieceStart = start; pieceStart < end; pieceStart += pieceMillis) {
+                long pieceEnd = Math.min(end, pieceStart + pieceMillis);
+                segments.add(new Segment(segments.size(), inputIndex, path, pieceStart, pieceEnd - pieceStart));
+            }
+        }
+        return segments;
+    }
+
+    private static long roundUpToSecond(long millis) {
+        return ((millis + 999) / 1000) * 1000;
+    }
+}
@@ -0,0 +1,35 @@
+package com.dacklabs.mp4splicer.workers;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+
+/**
+ * Something the scheduler decided about a pool's queue: that it started a job, or why it left the next one waiting.
+ * For a start the reason is just which job it was.
+ */
+public class AdmissionDecision {
+    public final long atMillis;
+    public final JobScheduler.Pool pool;
+    public final boolean started;
+    public final String reason;
+
+    AdmissionDecision(long atMillis, JobScheduler.Pool pool, boolean started, String reason) {
+        this.atMillis = atMillis;
+        this.pool = pool;
+        this.started = started;
+        this.reason = reason;
+    }
+
+    public String formattedTime() {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(atMillis), ZoneId.systemDefault());
+        return DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM).format(time);
+    }
+
+    @Override
+    public String toString() {
+        return pool.displayName + (started ? " started " : " waiting: ") + reason;
+    }
+}
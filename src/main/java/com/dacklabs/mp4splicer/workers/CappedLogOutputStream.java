@@ -0,0 +1,85 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a log file that never grows much past a fixed size. The first {@code headBytes} are always kept, since that's
+ * where ffmpeg describes the input and output streams, and after that only the most recent {@code tailBytes} or so.
+ * Once the file passes head + 2 * tail it is compacted in place to the head, a line saying how much was dropped, and
+ * the latest tail, starting at a line break if there is one.
+ */
+class CappedLogOutputStream extends OutputStream {
+
+    private final FileChannel file;
+    private final long headBytes;
+    private final int tailBytes;
+    private long droppedBytes = 0;
+    private long keptFrom; // where the kept tail starts, i.e. the end of the head or of the "dropped" line
+
+    CappedLogOutputStream(Path path, long headBytes, int tailBytes) throws IOException {
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                     StandardOpenOption.WRITE, StandardOpenOption.READ);
+        this.headBytes = headBytes;
+        this.tailBytes = tailBytes;
+        this.keptFrom = headBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+        if (file.position() > headBytes + 2L * tailBytes) {
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        long size = file.position();
+        ByteBuffer tail = ByteBuffer.allocate(tailBytes);
+        long tailStart = size - tailBytes;
+        while (tail.hasRemaining() && file.read(tail, tailStart + tail.position()) >= 0) {
+            // keep reading until the tail is full
+        }
+        tail.flip();
+        boolean lineBreak = false;
+        while (tail.hasRemaining() && !lineBreak) {
+            byte b = tail.get();
+            lineBreak = b == '\n' || b == '\r'; // don't start the tail halfway through a line
+        }
+        if (!lineBreak) {
+            tail.rewind(); // one line longer than the whole tail, keep the end of it rather than nothing
+        }
+        droppedBytes += tailStart + tail.position() - keptFrom;
+        byte[] marker = String.format("%n[... %d bytes of log dropped ...]%n", droppedBytes).getBytes(Charsets.UTF_8);
+
+        file.position(headBytes);
+        ByteBuffer markerBuffer = ByteBuffer.wrap(marker);
+        while (markerBuffer.hasRemaining()) {
+            file.write(markerBuffer);
+        }
+        keptFrom = file.position();
+        while (tail.hasRemaining()) {
+            file.write(tail);
+        }
+        file.truncate(file.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,187 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares the machine's cores out between the ffmpeg processes that are encoding, so several jobs (or several segments
+ * of one job) running at once don't each start a thread per core and fight over them. Every encode launched gets an
+ * even share of the cores as its thread count. Stream copies and joins barely use any CPU, so they get a single
+ * thread and don't count against anyone's share.
+ * <p>
+ * ffmpeg can't change its thread count once it's running, so a share only shrinks or grows for processes launched
+ * afterwards. With pinning on, every encode is also held to its own set of cores with {@code taskset}, and those sets
+ * are redrawn for the running processes whenever an encode starts or finishes.
+ */
+public class CpuBudget {
+
+    private static final Path TASKSET = Paths.get("/usr/bin/taskset");
+
+    private final int cores;
+    private final boolean pin;
+    private final List<Share> encodes = new ArrayList<>(); // guarded by this, in the order they were launched
+
+    /**
+     * @param cores    how many cores ffmpeg may use between all its processes, or 0 to leave thread counts to ffmpeg
+     * @param pinCores hold each encode to its share of the cores, where there's a {@code taskset} to do it with
+     */
+    public CpuBudget(int cores, boolean pinCores) {
+        Preconditions.checkArgument(!pinCores || cores <= Runtime.getRuntime().availableProcessors(),
+                                    "Can't pin ffmpeg to more cores than there are");
+        this.cores = cores;
+        this.pin = cores > 0 && pinCores && Files.isExecutable(TASKSET);
+    }
+
+    /**
+     * Takes a share of the cores for an ffmpeg process about to be launched. It must be given back with
+     * {@link #release} once the process has exited.
+     *
+     * @param encoding whether the process encodes video, rather than just copying streams
+     */
+    Share reserve(boolean encoding) {
+        Share share = new Share(encoding);
+        if (cores > 0 && encoding) {
+            Map<Share, String> moved;
+            synchronized (this) {
+                encodes.add(share);
+                moved = rebalance();
+            }
+            repin(moved);
+        }
+        return share;
+    }
+
+    void release(Share share) {
+        Map<Share, String> moved;
+        synchronized (this) {
+            if (!encodes.remove(share)) {
+                return;
+            }
+            moved = rebalance();
+        }
+        repin(moved);
+    }
+
+    /**
+     * @return how many threads the running encodes were launched with between them
+     */
+    public synchronized int assignedThreads() {
+        return encodes.stream().mapToInt(share -> share.threads).sum();
+    }
+
+    /**
+     * Splits the cores evenly between the encodes, the earliest launched getting the odd ones over, and gives each a
+     * consecutive run of them. Once there are more encodes than cores they double up, one core each.
+     *
+     * @return the launched processes whose cores have changed, with their new cores
+     */
+    private Map<Share, String> rebalance() {
+        Map<Share, String> moved = new LinkedHashMap<>();
+        int first = 0;
+        for (int i = 0; i < encodes.size(); i++) {
+            Share share = encodes.get(i);
+            int count = Math.max(1, cores / encodes.size() + (i < cores % encodes.size() ? 1 : 0));
+            share.coreCount = count;
+            String cpus = count == 1 ? Integer.toString(first % cores) : first + "-" + (first + count - 1);
+            first += count;
+            if (pin && !cpus.equals(share.cpus)) {
+                share.cpus = cpus;
+                if (share.pid > 0) {
+                    moved.put(share, cpus);
+                }
+            }
+        }
+        return moved;
+    }
+
+    private void repin(Map<Share, String> moved) {
+        for (Map.Entry<Share, String> entry : moved.entrySet()) {
+            long pid = entry.getKey().pid;
+            System.out.println("Moving ffmpeg " + pid + " to cores " + entry.getValue());
+            List<String> command = Arrays.asList(TASKSET.toString(), "-a", "-p", "-c", entry.getValue(),
+                                                 Long.toString(pid));
+            try {
+                Process taskset = new ProcessBuilder().command(command).redirectErrorStream(true).start();
+                taskset.getInputStream().close();
+                if (taskset.waitFor() != 0) {
+                    System.out.println("Couldn't move ffmpeg " + pid + ", it has probably just exited");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * One ffmpeg process's part of the budget.
+     */
+    class Share {
+        final boolean encoding;
+        // all guarded by CpuBudget.this
+        int coreCount = 1;
+        String cpus = null; // null when not pinned
+        String launchedCpus = null;
+        long pid = -1;
+        int threads = 0; // until the command is built
+
+        private Share(boolean encoding) {
+            this.encoding = encoding;
+        }
+
+        /**
+         * Fits an ffmpeg command to the share: its thread count goes in before the output, which is always the last
+         * argument, and when pinned the whole command runs under {@code taskset}.
+         */
+        List<String> command(List<String> ffmpegCommand) {
+            if (cores <= 0) {
+                return ffmpegCommand;
+            }
+            List<String> command = new ArrayList<>();
+            synchronized (CpuBudget.this) {
+                threads = encoding ? coreCount : 1;
+                launchedCpus = cpus;
+                if (cpus != null) {
+                    command.addAll(Arrays.asList(TASKSET.toString(), "-c", cpus));
+                }
+            }
+            List<String> options = new ArrayList<>(ffmpegCommand.subList(1, ffmpegCommand.size() - 1));
+            if (encoding && options.contains("-filter_complex")) {
+                options.addAll(0, Arrays.asList("-filter_complex_threads", Integer.toString(threads)));
+            }
+            command.add(ffmpegCommand.get(0));
+            command.addAll(options);
+            command.add("-threads");
+            command.add(Integer.toString(threads));
+            command.add(ffmpegCommand.get(ffmpegCommand.size() - 1));
+            return command;
+        }
+
+        /**
+         * Remembers the process so it can be moved to other cores later, and moves it straight away if the cores
+         * were redrawn while it was starting.
+         */
+        void launched(Process process) {
+            long launchedPid = ProcessSupervisor.pidOf(process);
+            Map<Share, String> moved = new LinkedHashMap<>();
+            synchronized (CpuBudget.this) {
+                pid = launchedPid;
+                if (pid > 0 && cpus != null && !cpus.equals(launchedCpus)) {
+                    moved.put(this, cpus);
+                }
+            }
+            repin(moved);
+        }
+    }
+}
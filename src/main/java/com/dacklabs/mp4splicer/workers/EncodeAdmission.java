@@ -0,0 +1,173 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether starting another re-encode would actually get more video encoded. Each time the running encodes
+ * have settled it adds up the fps they report and remembers it against how many were running. Another encode is only
+ * let in once the last step up paid off: if running n jobs got barely more frames through than n - 1, or each job
+ * slowed to a crawl, the queue waits for a job to finish instead. Memory running low or a load average well past the
+ * cores also hold the queue, whatever the fps say.
+ * <p>
+ * Jobs differ (a 720p recording encodes faster than a 1080p one), so what was measured is forgotten after a while and
+ * tried again. All of this is only called with the scheduler's lock held.
+ */
+class EncodeAdmission {
+
+    private static final long SETTLE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MEASURE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final long MEASUREMENT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final double MIN_GAIN = 1.05; // one more job must add at least 5% to the total fps
+    private static final double COLLAPSED = 0.5; // each job getting under half the fps it did before
+    private static final double SMOOTHING = 0.3;
+    private static final long MIN_FREE_KB = 1024 * 1024;
+    private static final double MAX_LOAD_PER_CORE = 1.5;
+
+    private final StatsRegistry statsRegistry;
+    private final boolean adaptive;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final Map<Integer, Throughput> measured = new HashMap<>();
+    private long changedAtMillis = 0;
+
+    /**
+     * @param adaptive whether to measure the encodes at all, rather than filling every slot
+     */
+    EncodeAdmission(StatsRegistry statsRegistry, boolean adaptive) {
+        this.statsRegistry = statsRegistry;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Must be called whenever an encode starts or finishes, since the fps won't mean much for a while after.
+     */
+    void runningChanged() {
+        changedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Measures the running encodes if they've been running undisturbed long enough, and are all past probing and
+     * reporting their fps. A job that never gets that far (stuck probing, or an ffmpeg that reports no progress) would
+     * hold the measurement up forever, so {@link #holdReason} only waits {@link #MEASURE_TIMEOUT_MILLIS} for it.
+     */
+    void sample(Set<String> runningJobIDs) {
+        long now = System.currentTimeMillis();
+        if (!adaptive || runningJobIDs.isEmpty() || now - changedAtMillis < SETTLE_MILLIS) {
+            return;
+        }
+        double totalFps = 0;
+        for (String jobID : runningJobIDs) {
+            double fps = statsRegistry.reportedStats(jobID).fps;
+            if (fps <= 0) {
+                return;
+            }
+            totalFps += fps;
+        }
+        Throughput previous = fresh(runningJobIDs.size(), now);
+        double smoothed = previous != null ? previous.fps + SMOOTHING * (totalFps - previous.fps) : totalFps;
+        measured.put(runningJobIDs.size(), new Throughput(smoothed, now));
+    }
+
+    /**
+     * @param running  how many encodes are running
+     * @param maxSlots the most that may ever run at once
+     * @return null to start another encode, otherwise why not
+     */
+    String holdReason(int running, int maxSlots) {
+        if (running >= maxSlots) {
+            return "All " + maxSlots + " re-encode slots are busy";
+        }
+        if (!adaptive || running == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        long freeKb = freeMemoryKb();
+        if (freeKb >= 0 && freeKb < MIN_FREE_KB) {
+            return "Only " + freeKb / 1024 + " MB of memory is free";
+        }
+        double load = loadAverage();
+        if (load > cores * MAX_LOAD_PER_CORE) {
+            return String.format("The load average of %.1f is already well past the %d cores", load, cores);
+        }
+        Throughput current = fresh(running, now);
+        if (current == null && now - changedAtMillis >= SETTLE_MILLIS + MEASURE_TIMEOUT_MILLIS) {
+            return null; // couldn't be measured, so go by the slots alone
+        }
+        if (now - changedAtMillis < SETTLE_MILLIS || current == null) {
+            return "Measuring the fps of " + jobs(running) + " before trying another";
+        }
+        Throughput fewer = fresh(running - 1, now);
+        if (fewer != null && current.fps / running < fewer.fps / (running - 1) * COLLAPSED) {
+            return String.format("Each job slowed from %.1f to %.1f fps going from %d to %d, waiting for one to finish",
+                                 fewer.fps / (running - 1), current.fps / running, running - 1, running);
+        }
+        if (fewer != null && current.fps < fewer.fps * MIN_GAIN) {
+            return String.format("%s encoded %.1f fps between them, no faster than %.1f fps with %d",
+                                 jobs(running), current.fps, fewer.fps, running - 1);
+        }
+        Throughput more = fresh(running + 1, now);
+        if (more != null && more.fps < current.fps * MIN_GAIN) {
+            return String.format("%s only encoded %.1f fps between them, against %.1f fps with %d",
+                                 jobs(running + 1), more.fps, current.fps, running);
+        }
+        return null;
+    }
+
+    /**
+     * @return the aggregate fps of the given number of jobs, or null if it hasn't been measured lately
+     */
+    private Throughput fresh(int running, long now) {
+        Throughput throughput = measured.get(running);
+        return throughput != null && now - throughput.atMillis < MEASUREMENT_TTL_MILLIS ? throughput : null;
+    }
+
+    private static String jobs(int count) {
+        return count + (count == 1 ? " job" : " jobs");
+    }
+
+    /**
+     * @return the 1 minute load average, or 0 where there's no /proc to read it from
+     */
+    private static double loadAverage() {
+        try {
+            String loadavg = new String(Files.readAllBytes(Paths.get("/proc/loadavg")), Charsets.US_ASCII);
+            return Double.parseDouble(loadavg.split(" ")[0]);
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return how much memory could be had without swapping, or -1 where there's no /proc to read it from
+     */
+    private static long freeMemoryKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/meminfo"), Charsets.US_ASCII)) {
+                if (line.startsWith("MemAvailable:")) {
+                    return Long.parseLong(line.substring(13).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux, or a kernel older than 3.14
+        }
+        return -1;
+    }
+
+    private static class Throughput {
+        final double fps;
+        final long atMillis;
+
+        Throughput(double fps, long atMillis) {
+            this.fps = fps;
+            this.atMillis = atMillis;
+        }
+    }
+}
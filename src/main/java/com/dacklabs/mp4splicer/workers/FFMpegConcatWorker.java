@@ -1,70 +1,53 @@
 package com.dacklabs.mp4splicer.workers;
 
 import com.dacklabs.mp4splicer.Database;
-import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
-import com.dacklabs.mp4splicer.model.EncodingStatus;
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.ffmpeg.InputProber;
+import com.dacklabs.mp4splicer.model.EncodingMode;
 import com.dacklabs.mp4splicer.model.InputFile;
 import com.dacklabs.mp4splicer.model.Job;
 import com.google.common.base.Charsets;
-import com.google.common.base.Joiner;
-import com.google.common.collect.ListMultimap;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
-public class FFMpegConcatWorker implements Runnable {
+public class FFMpegConcatWorker extends FFMpegWorker {
 
-    private final Database db;
-    private final String jobId;
-    private final String tempLocation;
-    private final ListMultimap<String, Process> runningProcesses;
-    private final String ffmpeg;
+    private final Consumer<Job> reencode;
 
-    public FFMpegConcatWorker(Database db, ListMultimap<String, Process> runningProcesses, String jobId,
-                              String tempLocation, String ffmpeg) {
-        this.db = db;
-        this.jobId = jobId;
-        this.tempLocation = tempLocation;
-        this.runningProcesses = runningProcesses;
-        this.ffmpeg = ffmpeg;
+    /**
+     * @param reencode takes over automatic jobs whose inputs turn out to need re-encoding
+     */
+    public FFMpegConcatWorker(Database db, ProcessSupervisor processSupervisor, InputProber inputProber,
+                              StatsRegistry statsRegistry, CpuBudget cpuBudget, String jobId, String tempLocation,
+                              String ffmpeg, Consumer<Job> reencode) {
+        super(db, processSupervisor, inputProber, statsRegistry, cpuBudget, jobId, tempLocation, ffmpeg);
+        this.reencode = reencode;
     }
 
     @Override
-    public void run() {
-        try {
-            Job job = db.getJob(jobId);
-            System.out.println("Running job " + job.name + " (" + job.jobID + ")");
-            job = db.saveJob(job.resetTimer());
-
-            for (InputFile inputFile : job.inputPaths) {
-                job = job.updateInput(inputFile.withProbedStats(InputFileStats.probeStats(ffmpeg, inputFile.path)));
-            }
-            db.saveJob(job);
-
-            Path inputFilesConfigPath = writeFFMpegConfigFile(job);
-
-            List<String> command = generateFFMpegCommand(job, inputFilesConfigPath);
-
-            System.out.println("Executing: " + Joiner.on(" ").join(command));
+    protected boolean passOn(Job job) {
+        if (job.mode.copiesVideo()) {
+            return false;
+        }
+        reencode.accept(job);
+        return true;
+    }
 
-            job = db.saveJob(job.updateOutputStatus(EncodingStatus.ENCODING).encoding());
-            Process concatProcess = new ProcessBuilder().command(command).start();
-            FFMpegLogWatcher logWatcher = new FFMpegLogWatcher(job, concatProcess.getErrorStream());
-            logWatcher.start();
-            runningProcesses.put(job.jobID, concatProcess);
-            int concatReturnValue = concatProcess.waitFor();
-            if (concatReturnValue != 0) {
-                throw new RuntimeException("concat failed with exit code " + concatReturnValue);
-            }
-            db.saveJob(job.updateOutputStatus(EncodingStatus.DONE).done());
-            System.out.println("Done.");
-            logWatcher.kill();
-        } catch (InterruptedException | IOException e) {
-            e.printStackTrace();
+    @Override
+    protected void encode(Job job, JobReporter reporter) throws IOException, InterruptedException {
+        Path inputFilesConfigPath = writeFFMpegConfigFile(job);
+        reporter.start(JobReporter.Phase.CONCAT);
+        int concatReturnValue = runFFMpeg(job, generateFFMpegCommand(job, inputFilesConfigPath), false,
+                                          errorStream -> new FFMpegLogWatcher(job, errorStream, statsRegistry));
+        if (concatReturnValue != 0) {
+            throw new RuntimeException("concat failed with exit code " + concatReturnValue);
         }
     }
 
@@ -87,18 +70,46 @@ public class FFMpegConcatWorker implements Runnable {
         command.add("concat");
         command.add("-i");
         command.add(inputFilesConfig.toString());
-        command.add("-c");
-        command.add("copy");
+        if (job.mode == EncodingMode.COPY) {
+            command.add("-c");
+            command.add("copy");
+        } else {
+            command.add("-c:v");
+            command.add("copy");
+            command.add("-c:a");
+            command.add("aac");
+            command.add("-strict");
+            command.add("experimental"); // ffmpeg's own AAC encoder needs this before version 3.0
+        }
         if (job.startTrimTimeSeconds != null) {
             command.add("-ss");
             command.add(job.startTrimTimeSeconds.toString());
         }
         if (job.endTrimTimeSeconds != null) {
             command.add("-t");
-            command.add(job.endTrimTimeSeconds + "");
+            command.add(BigDecimal.valueOf(keptMillis(job), 3).toPlainString());
         }
         Path outputFullPath = Paths.get(job.directory, job.outputPath.path);
         command.add("\"" + outputFullPath + "\"");
         return command;
     }
+
+    /**
+     * The end trim is how much of the last input to keep, the same as when re-encoding, but the concat demuxer can
+     * only be told how long the whole output should be. That's everything before the last input, less the start trim,
+     * plus the part of the last input that's kept.
+     */
+    private static long keptMillis(Job job) {
+        long millis = job.endTrimTimeSeconds * 1000L;
+        for (InputFile input : job.inputPaths.subList(0, job.inputPaths.size() - 1)) {
+            if (input.stats.duration == null) {
+                throw new IllegalStateException("Can't trim the end without knowing how long " + input.path + " is");
+            }
+            millis += input.stats.duration.toMillis();
+        }
+        if (job.inputPaths.size() > 1 && job.startTrimTimeSeconds != null) {
+            millis -= job.startTrimTimeSeconds * 1000L;
+        }
+        return Math.max(0, millis);
+    }
 }
@@ -1,67 +1,155 @@
 package com.dacklabs.mp4splicer.workers;
 
 import com.dacklabs.mp4splicer.Database;
-import com.dacklabs.mp4splicer.ffmpeg.InputFileStats;
-import com.dacklabs.mp4splicer.model.EncodingStatus;
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.ffmpeg.InputProber;
+import com.dacklabs.mp4splicer.model.CompletedSegment;
+import com.dacklabs.mp4splicer.model.EncodeProfile;
 import com.dacklabs.mp4splicer.model.InputFile;
 import com.dacklabs.mp4splicer.model.Job;
-import com.google.common.base.Joiner;
-import com.google.common.collect.ListMultimap;
+import com.dacklabs.mp4splicer.model.Segment;
+import com.google.common.base.Charsets;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class FFMpegFilterGraphWorker implements Runnable {
-
-    private final Database db;
-    private final String jobId;
-    private final String tempLocation;
-    private final ListMultimap<String, Process> runningProcesses;
-    private final String ffmpeg;
-
-    public FFMpegFilterGraphWorker(Database db, ListMultimap<String, Process> runningProcesses, String jobId,
-                            String tempLocation, String ffmpeg) {
-        this.db = db;
-        this.jobId = jobId;
-        this.tempLocation = tempLocation;
-        this.runningProcesses = runningProcesses;
-        this.ffmpeg = ffmpeg;
+public class FFMpegFilterGraphWorker extends FFMpegWorker {
+
+    private final long checkpointMillis;
+
+    /**
+     * @param checkpointMillis the longest stretch of video to encode without saving progress, or 0 to encode jobs that
+     *                         aren't split into parallel segments in a single ffmpeg process
+     */
+    public FFMpegFilterGraphWorker(Database db, ProcessSupervisor processSupervisor, InputProber inputProber,
+                                   StatsRegistry statsRegistry, CpuBudget cpuBudget, String jobId, String tempLocation,
+                                   String ffmpeg, long checkpointMillis) {
+        super(db, processSupervisor, inputProber, statsRegistry, cpuBudget, jobId, tempLocation, ffmpeg);
+        this.checkpointMillis = checkpointMillis;
     }
 
     @Override
-    public void run() {
-        try {
-            Job job = db.getJob(jobId);
-            System.out.println("Running job " + job.name + " (" + job.jobID + ")");
-            job = db.saveJob(job.resetTimer());
+    protected void encode(Job job, JobReporter reporter) throws IOException, InterruptedException {
+        reporter.start(JobReporter.Phase.ENCODE);
+        if (job.segmentCount > 1 || checkpointMillis > 0) {
+            encodeInSegments(job, reporter);
+        } else {
+            encodeInOneProcess(job);
+        }
+    }
+
+    private void encodeInOneProcess(Job job) throws IOException, InterruptedException {
+        List<String> command = generateFFMpegCommand(job);
+        int returnValue = runFFMpeg(job, command, true,
+                                    errorStream -> new FFMpegLogWatcher(job, errorStream, statsRegistry));
+        if (returnValue != 0) {
+            throw new RuntimeException("encode failed with exit code " + returnValue);
+        }
+    }
 
-            for (InputFile inputFile : job.inputPaths) {
-                job = job.updateInput(inputFile.withProbedStats(InputFileStats.probeStats(ffmpeg, inputFile.path)));
+    /**
+     * Encodes the job's timeline as separate segments, several at a time, then stream-copies them into the output.
+     * Each finished segment is checkpointed on the job, so if the server restarts only the remaining segments are
+     * encoded.
+     */
+    private void encodeInSegments(Job job, JobReporter reporter) throws IOException, InterruptedException {
+        List<Segment> segments = Segment.plan(job, job.segmentCount, checkpointMillis);
+        SegmentProgress progress = new SegmentProgress(job, segments.size(), statsRegistry);
+        Path[] segmentFiles = new Path[segments.size()];
+        List<Segment> remaining = new ArrayList<>();
+        for (Segment segment : segments) {
+            Optional<CompletedSegment> checkpoint =
+                    job.completedSegments.stream().filter(c -> c.covers(segment)).findFirst();
+            if (checkpoint.isPresent() && Files.exists(Paths.get(checkpoint.get().file))) {
+                segmentFiles[segment.index] = Paths.get(checkpoint.get().file);
+                progress.segmentAlreadyDone(segment.index, checkpoint.get().frames, segment.durationMillis);
+            } else {
+                remaining.add(segment);
             }
-            db.saveJob(job);
+        }
+        System.out.println("Encoding " + job.name + " as " + segments.size() + " segments, " + job.segmentCount +
+                                   " at a time (" + (segments.size() - remaining.size()) + " already done)");
 
-            List<String> command = generateFFMpegCommand(job);
+        ExecutorService segmentPool = Executors.newFixedThreadPool(job.segmentCount);
+        try {
+            Map<Segment, Future<Path>> encodes = new LinkedHashMap<>();
+            for (Segment segment : remaining) {
+                encodes.put(segment, segmentPool.submit(() -> encodeSegment(job, segment, progress)));
+            }
+            for (Map.Entry<Segment, Future<Path>> encode : encodes.entrySet()) {
+                try {
+                    segmentFiles[encode.getKey().index] = encode.getValue().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        throw (CancellationException) e.getCause();
+                    }
+                    throw new RuntimeException("segment encode failed", e.getCause());
+                }
+            }
+            reporter.start(JobReporter.Phase.CONCAT);
+            joinSegments(job, Arrays.asList(segmentFiles));
+            for (Path segmentFile : segmentFiles) {
+                Files.deleteIfExists(segmentFile);
+            }
+        } finally {
+            segmentPool.shutdownNow();
+            progress.close();
+        }
+    }
 
-            System.out.println("Executing: " + Joiner.on(" ").join(command));
+    private Path encodeSegment(Job job, Segment segment, SegmentProgress progress)
+            throws IOException, InterruptedException {
+        Path output = Paths.get(tempLocation, job.jobID + "-segment-" + segment.index + ".mp4");
+        List<String> command = generateSegmentCommand(job, segment, output);
+        Path stdErrFile = Paths.get(job.segmentStdErrFile(segment.index));
+        int returnValue = runFFMpeg(job, command, true, errorStream -> new FFMpegLogWatcher(
+                errorStream, stdErrFile, null, progress.listenerFor(segment.index)));
+        if (returnValue != 0) {
+            throw new RuntimeException("segment " + segment.index + " failed with exit code " + returnValue);
+        }
+        progress.segmentDone(segment.index);
+        CompletedSegment completed = CompletedSegment.of(segment, progress.framesFor(segment.index), output.toString());
+        update(latest -> latest.segmentCompleted(completed)); // keeps the other segments' checkpoints
+        return output;
+    }
 
-            job = db.saveJob(job.updateOutputStatus(EncodingStatus.ENCODING).encoding());
-            Process concatProcess = new ProcessBuilder().command(command).start();
-            FFMpegLogWatcher logWatcher = new FFMpegLogWatcher(job, concatProcess.getErrorStream());
-            logWatcher.start();
-            runningProcesses.put(job.jobID, concatProcess);
-            int concatReturnValue = concatProcess.waitFor();
-            if (concatReturnValue != 0) {
-                throw new RuntimeException("concat failed with exit code " + concatReturnValue);
-            }
-            db.saveJob(job.updateOutputStatus(EncodingStatus.DONE).done());
-            System.out.println("Done.");
-            logWatcher.kill();
-        } catch (InterruptedException | IOException e) {
-            e.printStackTrace();
+    private void joinSegments(Job job, List<Path> segmentFiles) throws IOException, InterruptedException {
+        List<String> configLines = new ArrayList<>();
+        for (Path segmentFile : segmentFiles) {
+            configLines.add("file " + segmentFile.getFileName()); // relative to the config file, which sits beside them
+        }
+        Path segmentsConfig = Paths.get(tempLocation, job.jobID + "-segments.txt");
+        Files.write(segmentsConfig, configLines, Charsets.UTF_8);
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpeg);
+        command.add("-y");
+        command.add("-f");
+        command.add("concat");
+        command.add("-i");
+        command.add(segmentsConfig.toString());
+        command.add("-c");
+        command.add("copy");
+        command.add("\"" + Paths.get(job.directory, job.outputPath.path) + "\"");
+        int returnValue = runFFMpeg(job, command, false, errorStream -> new FFMpegLogWatcher(
+                errorStream, Paths.get(job.jobStdErrFile()), null, stats -> {})); // keep the segments' progress
+        if (returnValue != 0) {
+            throw new RuntimeException("joining segments failed with exit code " + returnValue);
         }
+        Files.deleteIfExists(segmentsConfig);
     }
 
     private List<String> generateFFMpegCommand(Job job) {
@@ -85,15 +173,71 @@ public class FFMpegFilterGraphWorker implements Runnable {
         if (job.inputPaths.size() > 1) {
             addFilterGraphConcat(job, command);
         }
-        command.add("-b:v");
-        int maxBitrate = job.inputPaths.stream().map(i -> i.stats.bitrate).max(Double::compare).orElse(10000);
-        command.add(Math.min(maxBitrate, 15000) + "k");
+        addVideoEncoder(job, command);
 
         Path outputFullPath = Paths.get(job.directory, job.outputPath.path);
         command.add("\"" + outputFullPath + "\"");
         return command;
     }
 
+    private List<String> generateSegmentCommand(Job job, Segment segment, Path output) {
+        InputFile inputFile = job.inputPaths.get(segment.inputIndex);
+        List<String> command = new ArrayList<>();
+        command.add(ffmpeg);
+        command.add("-y");
+        command.add("-ss");
+        command.add(segment.formattedStart());
+        command.add("-i");
+        command.add("\"" + segment.inputPath + "\"");
+        if (segment.durationMillis != null) {
+            command.add("-t");
+            command.add(segment.formattedDuration());
+        }
+        command.add("-map");
+        command.add("0:" + inputFile.stats.videoStreams.get(0).streamNumber);
+        command.add("-map");
+        command.add("0:" + inputFile.stats.audioStreams.get(0).streamNumber);
+        addVideoEncoder(job, command);
+        command.add("\"" + output + "\"");
+        return command;
+    }
+
+    /**
+     * Sets x264 up the way the job's profile asks.
+     */
+    private static void addVideoEncoder(Job job, List<String> command) {
+        EncodeProfile profile = job.profile;
+        command.add("-c:v");
+        command.add("libx264");
+        command.add("-preset");
+        command.add(profile.preset);
+        if (profile.tune != null) {
+            command.add("-tune");
+            command.add(profile.tune);
+        }
+        int targetBitrate = targetBitrateKbps(job);
+        if (profile.crf == null) {
+            command.add("-b:v");
+            command.add(targetBitrate + "k");
+        } else {
+            command.add("-crf");
+            command.add(profile.crf.toString());
+            if (profile.capBitrate) {
+                command.add("-maxrate");
+                command.add(targetBitrate + "k");
+                command.add("-bufsize");
+                command.add(targetBitrate * 2 + "k");
+            }
+        }
+        command.add("-rc-lookahead");
+        command.add(Integer.toString(profile.lookahead));
+    }
+
+    private static int targetBitrateKbps(Job job) {
+        int maxBitrate = job.inputPaths.stream().map(i -> i.stats.bitrate).max(Double::compare).orElse(10000);
+        return Math.min(maxBitrate, 15000);
+    }
+
     private void addFilterGraphConcat(Job job, List<String> command) {
         command.add("-filter_complex");
         StringBuilder filterGraph = new StringBuilder("\"");
@@ -113,7 +257,5 @@ public class FFMpegFilterGraphWorker implements Runnable {
         command.add("\"[v]\"");
         command.add("-map");
         command.add("\"[a]\"");
-        command.add("-c:v");
-        command.add("libx264");
     }
 }
@@ -1,69 +1,126 @@
 package com.dacklabs.mp4splicer.workers;
 
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.metrics.Counter;
+import com.dacklabs.mp4splicer.metrics.Metrics;
 import com.dacklabs.mp4splicer.model.EncodingStats;
 import com.dacklabs.mp4splicer.model.Job;
-import com.dacklabs.mp4splicer.model.StatsMatcher;
+import com.dacklabs.mp4splicer.model.ProgressParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.Optional;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+/**
+ * Copies an ffmpeg process's stderr to a log file and reports its progress. Progress lines arrive many times a
+ * second, so the stats are published at most every {@link #STATS_INTERVAL_MILLIS} and once more when the stream ends.
+ * The log keeps its first {@link #LOG_HEAD_BYTES} and roughly the last {@link #LOG_TAIL_BYTES}.
+ */
 public class FFMpegLogWatcher extends Thread {
 
-    private final Job job;
+    private static final long STATS_INTERVAL_MILLIS = 500;
+    private static final long LOG_FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long DRAIN_TIMEOUT_MILLIS = 2000;
+    private static final long LOG_HEAD_BYTES = 256 * 1024;
+    private static final int LOG_TAIL_BYTES = 2 * 1024 * 1024;
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final Counter BYTES_PARSED =
+            Metrics.counter("ffmpeg_log_bytes_parsed_total", "Bytes of ffmpeg output read for progress");
+    private static final Counter FRAMES =
+            Metrics.counter("frames_encoded_total", "Frames written by every ffmpeg process, for frames per second");
+
     private final InputStream errorStream;
+    private final Path stdErrFile;
+    private final Path statsFile;
+    private final Consumer<EncodingStats> statsListener;
     private final AtomicBoolean running = new AtomicBoolean(true);
-    private static final ObjectMapper om = new ObjectMapper();
-    private LocalDateTime lastFlushTime = LocalDateTime.now();
+    private int publishedFrames = 0;
 
-    public FFMpegLogWatcher(Job job, InputStream errorStream) {
-        this.job = job;
+    public FFMpegLogWatcher(Job job, InputStream errorStream, StatsRegistry statsRegistry) {
+        this(errorStream, Paths.get(job.jobStdErrFile()), Paths.get(job.jobStatsFile()),
+             stats -> statsRegistry.update(job.jobID, stats));
+    }
+
+    /**
+     * @param statsFile where to record the progress, or null to only hand it to the listener
+     */
+    public FFMpegLogWatcher(InputStream errorStream, Path stdErrFile, Path statsFile,
+                            Consumer<EncodingStats> statsListener) {
         this.errorStream = errorStream;
+        this.stdErrFile = stdErrFile;
+        this.statsFile = statsFile;
+        this.statsListener = statsListener;
     }
 
     @Override
     public void run() {
-        try {
-            Scanner scanner = new Scanner(errorStream);
-
-            OpenOption[] openOptions =
-                    {StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE};
-            BufferedWriter stats = Files.newBufferedWriter(Paths.get(job.jobStatsFile()), Charsets.UTF_8, openOptions);
-            BufferedWriter stdErr = Files.newBufferedWriter(Paths.get(job.jobStdErrFile()), Charsets.UTF_8, openOptions);
-            while (running.get() && scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                stdErr.write(line);
-                stdErr.newLine();
-                Optional<EncodingStats> maybeStats = StatsMatcher.match(line);
-                if (maybeStats.isPresent()) {
-                    stats.write(om.writeValueAsString(maybeStats.get()));
-                    stats.newLine();
+        statsListener.accept(EncodingStats.none()); // forget stats from any earlier run
+        OpenOption[] openOptions =
+                {StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE};
+        try (OutputStream stdErr = new CappedLogOutputStream(stdErrFile, LOG_HEAD_BYTES, LOG_TAIL_BYTES);
+             BufferedWriter stats = statsFile != null ? Files.newBufferedWriter(statsFile, Charsets.UTF_8, openOptions)
+                                                      : null) {
+            ProgressParser parser = new ProgressParser();
+            byte[] buffer = new byte[8192];
+            boolean unpublished = false;
+            long lastPublish = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(STATS_INTERVAL_MILLIS);
+            long lastFlush = System.nanoTime();
+            int read;
+            while (running.get() && (read = errorStream.read(buffer)) >= 0) {
+                stdErr.write(buffer, 0, read);
+                BYTES_PARSED.add(read);
+                unpublished |= parser.accept(buffer, 0, read);
+                long now = System.nanoTime();
+                if (unpublished && now - lastPublish >= TimeUnit.MILLISECONDS.toNanos(STATS_INTERVAL_MILLIS)) {
+                    publish(parser.stats(), stats);
+                    unpublished = false;
+                    lastPublish = now;
                 }
-                stats.flush();
-                if (Duration.between(lastFlushTime, LocalDateTime.now()).minusSeconds(1).isNegative()) {
+                if (now - lastFlush >= TimeUnit.MILLISECONDS.toNanos(LOG_FLUSH_INTERVAL_MILLIS)) {
                     stdErr.flush();
-                    lastFlushTime = LocalDateTime.now();
+                    lastFlush = now;
                 }
             }
-            scanner.close();
-            stats.close();
-            stdErr.close();
+            if (parser.finish() || unpublished) {
+                publish(parser.stats(), stats);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private void publish(EncodingStats encodingStats, BufferedWriter stats) throws IOException {
+        if (stats != null) {
+            stats.write(om.writeValueAsString(encodingStats));
+            stats.newLine();
+            stats.flush();
+        }
+        if (encodingStats.frame > publishedFrames) {
+            FRAMES.add(encodingStats.frame - publishedFrames);
+            publishedFrames = encodingStats.frame;
+        }
+        statsListener.accept(encodingStats);
+    }
+
+    /**
+     * Waits for the rest of an exited process's output to be recorded, so its final stats aren't lost, then stops.
+     */
+    public void finish() throws InterruptedException {
+        join(DRAIN_TIMEOUT_MILLIS);
+        kill();
+    }
+
     public void kill() {
         running.set(false);
     }
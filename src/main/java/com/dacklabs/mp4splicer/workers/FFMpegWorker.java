@@ -0,0 +1,156 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.Database;
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.ffmpeg.IncompatibleStreamsException;
+import com.dacklabs.mp4splicer.ffmpeg.InputProber;
+import com.dacklabs.mp4splicer.ffmpeg.ProbeFailedException;
+import com.dacklabs.mp4splicer.ffmpeg.StreamCompatibility;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.EncodingStatus;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobReport;
+import com.google.common.base.Joiner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs a job from start to finish: probes its inputs, chooses its mode if that was left to be decided, has the
+ * subclass turn the inputs into the output, and saves how that went. A job that's canceled or deleted meanwhile is
+ * left as it was saved that way; anything else going wrong marks it failed.
+ */
+public abstract class FFMpegWorker implements Runnable {
+
+    protected final Database db;
+    protected final String jobId;
+    protected final String tempLocation;
+    protected final ProcessSupervisor processSupervisor;
+    protected final StatsRegistry statsRegistry;
+    protected final String ffmpeg;
+    private final InputProber inputProber;
+    private final CpuBudget cpuBudget;
+
+    FFMpegWorker(Database db, ProcessSupervisor processSupervisor, InputProber inputProber,
+                 StatsRegistry statsRegistry, CpuBudget cpuBudget, String jobId, String tempLocation, String ffmpeg) {
+        this.db = db;
+        this.jobId = jobId;
+        this.tempLocation = tempLocation;
+        this.processSupervisor = processSupervisor;
+        this.inputProber = inputProber;
+        this.statsRegistry = statsRegistry;
+        this.cpuBudget = cpuBudget;
+        this.ffmpeg = ffmpeg;
+    }
+
+    @Override
+    public void run() {
+        try (JobReporter reporter = new JobReporter(jobId, statsRegistry, processSupervisor)) {
+            Job job = update(Job::resetTimer);
+            System.out.println("Running job " + job.name + " (" + job.jobID + ")");
+
+            reporter.start(JobReporter.Phase.PROBE);
+            try {
+                List<InputFile> probed = inputProber.probeAll(job.inputPaths);
+                job = update(latest -> latest.updateInputs(probed));
+                if (job.mode == EncodingMode.AUTOMATIC) {
+                    EncodingMode fastest = StreamCompatibility.fastestMode(job.inputPaths);
+                    job = update(latest -> latest.updateMode(fastest));
+                    System.out.println("Chose " + fastest.displayName + " for " + job.name);
+                    if (passOn(job)) {
+                        return;
+                    }
+                }
+                StreamCompatibility.check(job.inputPaths, job.mode);
+            } catch (ProbeFailedException | IncompatibleStreamsException e) {
+                System.out.println(e.getMessage());
+                failed(e.getMessage());
+                return;
+            }
+
+            job = update(latest -> latest.updateOutputStatus(EncodingStatus.ENCODING).encoding());
+            encode(job, reporter);
+            JobReport report = reporter.finish(job);
+            update(latest -> latest.updateOutputStatus(EncodingStatus.DONE).done(report));
+            System.out.println("Done, " + report.formattedSpeedFactor() + " realtime using " +
+                                       report.formattedCpuTime() + " of CPU.");
+        } catch (CancellationException e) {
+            System.out.println(e.getMessage()); // whoever canceled or deleted it has already saved it that way
+        } catch (InterruptedException e) {
+            e.printStackTrace(); // the server is stopping, the job is picked up again when it starts
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            failed(e.getCause() != null ? e.getMessage() + ": " + e.getCause().getMessage() : e.getMessage());
+        } finally {
+            processSupervisor.forget(jobId);
+        }
+    }
+
+    /**
+     * Called once a job left in {@link EncodingMode#AUTOMATIC} has had its mode chosen, to hand it to another kind of
+     * worker if this one doesn't do that mode.
+     *
+     * @return whether the job was handed on, so this worker has nothing more to do
+     */
+    protected boolean passOn(Job job) {
+        return false;
+    }
+
+    /**
+     * Writes the output of a job whose inputs have all been probed and checked.
+     *
+     * @param reporter for starting each phase of the work after probing
+     */
+    protected abstract void encode(Job job, JobReporter reporter) throws IOException, InterruptedException;
+
+    /**
+     * Saves a change to the job as it is now, rather than as this worker last saw it.
+     *
+     * @throws CancellationException if the job was canceled or deleted meanwhile
+     */
+    protected Job update(UnaryOperator<Job> change) {
+        Job updated = db.updateUnfinishedJob(jobId, change);
+        if (updated == null) {
+            throw new CancellationException("Job " + jobId + " was canceled");
+        }
+        return updated;
+    }
+
+    /**
+     * Marks the job failed, unless it has finished some other way meanwhile, e.g. canceled with ffmpeg killed under it.
+     */
+    private void failed(String error) {
+        db.updateUnfinishedJob(jobId, latest -> latest.failed(error));
+    }
+
+    /**
+     * @param encoding whether the command encodes video, so needs a share of the CPU budget rather than a single thread
+     * @return ffmpeg's exit code
+     * @throws CancellationException if the job was canceled, before ffmpeg started or while it ran
+     */
+    protected int runFFMpeg(Job job, List<String> ffmpegCommand, boolean encoding,
+                            Function<InputStream, FFMpegLogWatcher> watcherFactory)
+            throws IOException, InterruptedException {
+        CpuBudget.Share share = cpuBudget.reserve(encoding);
+        try {
+            List<String> command = share.command(ffmpegCommand);
+            System.out.println("Executing: " + Joiner.on(" ").join(command));
+            Process process = processSupervisor.start(job.jobID, new ProcessBuilder().command(command));
+            share.launched(process);
+            FFMpegLogWatcher logWatcher = watcherFactory.apply(process.getErrorStream());
+            logWatcher.start();
+            try {
+                return processSupervisor.waitFor(job.jobID, process);
+            } finally {
+                logWatcher.finish();
+            }
+        } finally {
+            cpuBudget.release(share);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.model.EncodingStats;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobReport;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows a worker through a job, timing each phase and keeping every fps the job reports, and puts together its
+ * {@link JobReport} when it's done. The fps are counted in tenths rather than kept one by one, so a job that runs for
+ * days still only needs a few hundred entries to work out its percentiles.
+ */
+class JobReporter implements AutoCloseable {
+
+    enum Phase {
+        PROBE, ENCODE, CONCAT
+    }
+
+    private final String jobID;
+    private final StatsRegistry statsRegistry;
+    private final ProcessSupervisor processSupervisor;
+    private final Consumer<String> statsListener = this::statsUpdated;
+    private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+    private final TreeMap<Long, Integer> fpsTenths = new TreeMap<>(); // guarded by this
+    private int fpsCount = 0;
+    private double fpsTotal = 0;
+    private Phase phase = null;
+    private long phaseStart;
+
+    JobReporter(String jobID, StatsRegistry statsRegistry, ProcessSupervisor processSupervisor) {
+        this.jobID = jobID;
+        this.statsRegistry = statsRegistry;
+        this.processSupervisor = processSupervisor;
+        statsRegistry.addListener(statsListener);
+    }
+
+    /**
+     * Ends the current phase, if there is one, and starts timing the next.
+     */
+    void start(Phase next) {
+        endPhase();
+        phase = next;
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Must be called before the job's processes are forgotten, since their CPU time goes with them.
+     */
+    JobReport finish(Job job) {
+        endPhase();
+        ProcessUsage usage = processSupervisor.usage(jobID);
+        long inputBytes = 0;
+        for (InputFile input : job.inputPaths) {
+            inputBytes += sizeOf(input.path);
+        }
+        long outputBytes = sizeOf(Paths.get(job.directory, job.outputPath.path).toString());
+        EncodingStats last = statsRegistry.reportedStats(jobID);
+        long mediaMillis = Math.round(SegmentProgress.parseClock(last.estimatedTimeLeft) * 1000);
+        synchronized (this) {
+            return new JobReport(millis(Phase.PROBE), millis(Phase.ENCODE), millis(Phase.CONCAT), usage.cpuMillis,
+                                 usage.peakRssKb, inputBytes, outputBytes, fpsCount > 0 ? fpsTotal / fpsCount : 0,
+                                 percentile(0.95), mediaMillis);
+        }
+    }
+
+    @Override
+    public void close() {
+        statsRegistry.removeListener(statsListener);
+    }
+
+    private void endPhase() {
+        if (phase != null) {
+            phaseNanos.merge(phase, System.nanoTime() - phaseStart, Long::sum);
+            phase = null;
+        }
+    }
+
+    private long millis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos.getOrDefault(phase, 0L));
+    }
+
+    private synchronized void statsUpdated(String updatedJobID) {
+        if (!updatedJobID.equals(jobID)) {
+            return;
+        }
+        double fps = statsRegistry.reportedStats(jobID).fps;
+        if (fps > 0) { // zero while ffmpeg starts up and once a segment finishes, neither is encoding speed
+            fpsTenths.merge(Math.round(fps * 10), 1, Integer::sum);
+            fpsCount++;
+            fpsTotal += fps;
+        }
+    }
+
+    private double percentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * fpsCount);
+        long seen = 0;
+        for (Map.Entry<Long, Integer> fps : fpsTenths.entrySet()) {
+            seen += fps.getValue();
+            if (seen >= rank) {
+                return fps.getKey() / 10.0;
+            }
+        }
+        return 0;
+    }
+
+    private static long sizeOf(String path) {
+        try {
+            return Files.size(Paths.get(path));
+        } catch (IOException e) {
+            return 0; // moved or deleted since, the rest of the report is still worth having
+        }
+    }
+}
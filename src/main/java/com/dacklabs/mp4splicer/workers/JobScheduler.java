@@ -0,0 +1,293 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.metrics.Histogram;
+import com.dacklabs.mp4splicer.metrics.Metrics;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs job workers with a fixed number of slots per pool. Cheap stream-copy jobs and CPU-heavy re-encode jobs queue
+ * separately so a backlog of encodes never holds up a quick concat. Within a pool, jobs run in priority order and
+ * first-come-first-served within the same priority.
+ * <p>
+ * Re-encode slots are only a ceiling: another encode starts only if {@link EncodeAdmission} thinks it will get more
+ * video encoded. Every start, and every new reason for leaving a queue waiting, is kept in
+ * {@link #recentDecisions}.
+ */
+public class JobScheduler {
+
+    public enum Pool {
+        COPY("Stream copy"),
+        ENCODE("Re-encode");
+
+        public final String displayName;
+
+        Pool(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    private static final Histogram WAIT_SECONDS =
+            Metrics.histogram("queue_wait_seconds", "Time jobs spent queued before a slot was free",
+                              new double[]{1, 10, 60, 300, 900, 1800, 3600, 7200, 14400, 28800, 86400}, "pool");
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 5000;
+    private static final int DECISIONS_KEPT = 50;
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "admission-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Pool, Integer> slots = new EnumMap<>(Pool.class);
+    private final Map<Pool, Set<String>> running = new EnumMap<>(Pool.class);
+    private final Map<Pool, PriorityQueue<QueuedJob>> queues = new EnumMap<>(Pool.class);
+    private final Map<Pool, String> holdReasons = new EnumMap<>(Pool.class);
+    private final Deque<AdmissionDecision> decisions = new ArrayDeque<>();
+    private final Set<String> activeJobIDs = new HashSet<>();
+    private final Map<String, Requeued> requeued = new HashMap<>();
+    private final EncodeAdmission encodeAdmission;
+    private long nextSequence = 0;
+
+    /**
+     * @param adaptive whether to measure if another re-encode would help before starting it, rather than filling every
+     *                 re-encode slot
+     */
+    public JobScheduler(int copySlots, int encodeSlots, StatsRegistry statsRegistry, boolean adaptive) {
+        slots.put(Pool.COPY, Math.max(1, copySlots));
+        slots.put(Pool.ENCODE, Math.max(1, encodeSlots));
+        for (Pool pool : Pool.values()) {
+            running.put(pool, new HashSet<>());
+            queues.put(pool, new PriorityQueue<>());
+        }
+        encodeAdmission = new EncodeAdmission(statsRegistry, adaptive);
+        sampler.scheduleWithFixedDelay(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Re-encoding just the audio is cheap, and so is probing a job's inputs to choose its mode, so only re-encodes need
+     * the encode pool.
+     */
+    public static Pool poolFor(Job job) {
+        return job.mode != EncodingMode.REENCODE ? Pool.COPY : Pool.ENCODE;
+    }
+
+    /**
+     * Queues a worker for the given job. Submitting a job that is already queued or running does nothing.
+     */
+    public synchronized void submit(Job job, Runnable worker) {
+        if (!activeJobIDs.add(job.jobID)) {
+            return;
+        }
+        queues.get(poolFor(job)).add(new QueuedJob(job.jobID, job.name, job.priority, nextSequence++,
+                                                    System.nanoTime(), worker));
+        dispatch();
+    }
+
+    /**
+     * Queues a running job again once its worker finishes, keeping its place in line, e.g. one that turned out to need
+     * re-encoding once its mode was chosen. A job that isn't queued or running is just submitted.
+     */
+    public synchronized void requeue(Job job, Runnable worker) {
+        if (activeJobIDs.contains(job.jobID)) {
+            requeued.put(job.jobID, new Requeued(job, worker));
+        } else {
+            submit(job, worker);
+        }
+    }
+
+    /**
+     * Removes a job from its queue if it hasn't started yet, and drops any {@link #requeue} of it if it has.
+     *
+     * @return true if the job was waiting and will now never run
+     */
+    public synchronized boolean remove(String jobID) {
+        requeued.remove(jobID);
+        for (Map.Entry<Pool, PriorityQueue<QueuedJob>> queue : queues.entrySet()) {
+            if (queue.getValue().removeIf(q -> q.jobID.equals(jobID))) {
+                activeJobIDs.remove(jobID);
+                if (queue.getValue().isEmpty()) {
+                    holdReasons.remove(queue.getKey());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the 1-based position of every waiting job within its pool's queue
+     */
+    public synchronized Map<String, Integer> queuePositions() {
+        Map<String, Integer> positions = new HashMap<>();
+        for (PriorityQueue<QueuedJob> queue : queues.values()) {
+            List<QueuedJob> ordered = new ArrayList<>(queue);
+            ordered.sort(null);
+            for (int i = 0; i < ordered.size(); i++) {
+                positions.put(ordered.get(i).jobID, i + 1);
+            }
+        }
+        return positions;
+    }
+
+    public synchronized int queueDepth(Pool pool) {
+        return queues.get(pool).size();
+    }
+
+    public synchronized int runningCount(Pool pool) {
+        return running.get(pool).size();
+    }
+
+    /**
+     * @return why the pool's queue isn't moving, or null if nothing is waiting
+     */
+    public synchronized String holdReason(Pool pool) {
+        return holdReasons.get(pool);
+    }
+
+    /**
+     * @return the latest decisions first
+     */
+    public synchronized List<AdmissionDecision> recentDecisions() {
+        return new ArrayList<>(decisions);
+    }
+
+    private synchronized void sample() {
+        try {
+            encodeAdmission.sample(running.get(Pool.ENCODE));
+            dispatch();
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // keep sampling, an exception would cancel the schedule
+        }
+    }
+
+    private void dispatch() {
+        for (Pool pool : Pool.values()) {
+            PriorityQueue<QueuedJob> queue = queues.get(pool);
+            while (!queue.isEmpty()) {
+                String holdReason = holdReason(pool, running.get(pool).size());
+                if (holdReason != null) {
+                    String previous = holdReasons.put(pool, holdReason);
+                    if (previous == null || !withoutNumbers(previous).equals(withoutNumbers(holdReason))) {
+                        decided(new AdmissionDecision(System.currentTimeMillis(), pool, false, holdReason));
+                    }
+                    break;
+                }
+                QueuedJob next = queue.poll();
+                holdReasons.remove(pool);
+                WAIT_SECONDS.observeSince(next.queuedAtNanos, pool.name());
+                running.get(pool).add(next.jobID);
+                if (pool == Pool.ENCODE) {
+                    encodeAdmission.runningChanged();
+                }
+                decided(new AdmissionDecision(System.currentTimeMillis(), pool, true,
+                                              next.name + ", " + running.get(pool).size() + " now running"));
+                executorService.submit(() -> runAndRelease(pool, next));
+            }
+        }
+    }
+
+    private String holdReason(Pool pool, int runningCount) {
+        if (pool == Pool.ENCODE) {
+            return encodeAdmission.holdReason(runningCount, slots.get(pool));
+        }
+        return runningCount < slots.get(pool) ? null : "All " + slots.get(pool) + " stream copy slots are busy";
+    }
+
+    /**
+     * The fps in a reason move with every sample, so reasons are told apart by their wording alone, otherwise the
+     * same reason would fill the decisions every few seconds.
+     */
+    private static String withoutNumbers(String reason) {
+        return reason.replaceAll("[0-9.]+", "");
+    }
+
+    private void decided(AdmissionDecision decision) {
+        decisions.addFirst(decision);
+        if (decisions.size() > DECISIONS_KEPT) {
+            decisions.removeLast();
+        }
+    }
+
+    private void runAndRelease(Pool pool, QueuedJob queuedJob) {
+        try {
+            queuedJob.worker.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            release(pool, queuedJob);
+        }
+    }
+
+    private synchronized void release(Pool pool, QueuedJob queuedJob) {
+        running.get(pool).remove(queuedJob.jobID);
+        if (pool == Pool.ENCODE) {
+            encodeAdmission.runningChanged();
+        }
+        Requeued again = requeued.remove(queuedJob.jobID);
+        if (again != null) {
+            queues.get(poolFor(again.job)).add(new QueuedJob(queuedJob.jobID, queuedJob.name, queuedJob.priority,
+                                                             queuedJob.sequence, System.nanoTime(), again.worker));
+        } else {
+            activeJobIDs.remove(queuedJob.jobID);
+        }
+        dispatch();
+    }
+
+    private static class Requeued {
+        private final Job job;
+        private final Runnable worker;
+
+        private Requeued(Job job, Runnable worker) {
+            this.job = job;
+            this.worker = worker;
+        }
+    }
+
+    private static class QueuedJob implements Comparable<QueuedJob> {
+        private final String jobID;
+        private final String name;
+        private final JobPriority priority;
+        private final long sequence;
+        private final long queuedAtNanos;
+        private final Runnable worker;
+
+        private QueuedJob(String jobID, String name, JobPriority priority, long sequence, long queuedAtNanos,
+                          Runnable worker) {
+            this.jobID = jobID;
+            this.name = name;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.queuedAtNanos = queuedAtNanos;
+            this.worker = worker;
+        }
+
+        @Override
+        public int compareTo(QueuedJob other) {
+            int diff = priority.compareTo(other.priority);
+            if (diff != 0) {
+                return diff;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the processes each job is running, so they can be stopped when the job is canceled, and of the CPU
+ * time and memory they use. Every job's processes have their own lock, so launching one job's process never waits on
+ * another job being canceled.
+ * <p>
+ * A process is dropped as soon as it exits, either by {@link #waitFor} or by the sampler noticing it's gone. Once a
+ * job has been canceled, {@link #start} refuses to launch anything more for it.
+ */
+public class ProcessSupervisor {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 1000;
+    private static final long GRACEFUL_STOP_MILLIS = 5000;
+    private static final long CANCELED_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long CLOCK_TICK_MILLIS = 10; // USER_HZ, which is 100 on every Linux build that matters
+
+    private final ConcurrentHashMap<String, JobProcesses> jobs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "process-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ProcessSupervisor() {
+        sampler.scheduleWithFixedDelay(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a process on behalf of a job.
+     *
+     * @throws CancellationException if the job has been canceled
+     */
+    public Process start(String jobID, ProcessBuilder builder) throws IOException {
+        while (true) {
+            JobProcesses processes = jobs.computeIfAbsent(jobID, id -> new JobProcesses());
+            synchronized (processes) {
+                if (processes.forgotten) {
+                    continue; // forgotten while we waited for the lock, start again with a fresh entry
+                }
+                if (processes.canceledAtMillis > 0) {
+                    throw new CancellationException("Job " + jobID + " was canceled");
+                }
+                Process process = builder.start();
+                processes.running.add(new RunningProcess(process));
+                return process;
+            }
+        }
+    }
+
+    /**
+     * Waits for a process started by {@link #start} to exit, then stops tracking it. If the waiting thread is
+     * interrupted the process is stopped rather than left running with nobody watching it.
+     *
+     * @throws CancellationException if the job was canceled, since then the exit code is just that of being stopped
+     */
+    public int waitFor(String jobID, Process process) throws InterruptedException {
+        try {
+            int exitValue = process.waitFor();
+            ProcessUsage usage = processExited(jobID, process);
+            System.out.println("Process for job " + jobID + " exited with " + exitValue + " (" + usage + ")");
+            if (isCanceled(jobID)) {
+                throw new CancellationException("Job " + jobID + " was canceled");
+            }
+            return exitValue;
+        } catch (InterruptedException e) {
+            stop(process);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops every process the job is running, politely at first and forcibly if they're still going after a few
+     * seconds, and refuses to start any more.
+     */
+    public void cancel(String jobID) {
+        List<Process> toStop = new ArrayList<>();
+        while (true) {
+            JobProcesses processes = jobs.computeIfAbsent(jobID, id -> new JobProcesses());
+            synchronized (processes) {
+                if (processes.forgotten) {
+                    continue;
+                }
+                processes.canceledAtMillis = System.currentTimeMillis();
+                for (RunningProcess running : processes.running) {
+                    toStop.add(running.process);
+                }
+                break;
+            }
+        }
+        if (!toStop.isEmpty()) {
+            System.out.println("Stopping " + toStop.size() + " processes for canceled job " + jobID);
+        }
+        toStop.forEach(this::stop);
+    }
+
+    /**
+     * Stops tracking a job once its worker is finished with it. Anything it left running is stopped.
+     */
+    public void forget(String jobID) {
+        JobProcesses processes = jobs.remove(jobID);
+        if (processes == null) {
+            return;
+        }
+        List<Process> leftOver = new ArrayList<>();
+        synchronized (processes) {
+            processes.forgotten = true;
+            for (RunningProcess running : processes.running) {
+                leftOver.add(running.process);
+            }
+        }
+        leftOver.forEach(this::stop);
+    }
+
+    /**
+     * @return the CPU time of all the job's processes so far and the largest peak memory of any one of them
+     */
+    public ProcessUsage usage(String jobID) {
+        JobProcesses processes = jobs.get(jobID);
+        if (processes == null) {
+            return ProcessUsage.none();
+        }
+        synchronized (processes) {
+            long cpuMillis = processes.exitedCpuMillis;
+            long peakRssKb = processes.exitedPeakRssKb;
+            for (RunningProcess running : processes.running) {
+                cpuMillis += running.cpuMillis;
+                peakRssKb = Math.max(peakRssKb, running.peakRssKb);
+            }
+            return new ProcessUsage(cpuMillis, peakRssKb);
+        }
+    }
+
+    public int runningProcessCount() {
+        int count = 0;
+        for (JobProcesses processes : jobs.values()) {
+            synchronized (processes) {
+                count += processes.running.size();
+            }
+        }
+        return count;
+    }
+
+    private void stop(Process process) {
+        process.destroy();
+        sampler.schedule(() -> {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }, GRACEFUL_STOP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isCanceled(String jobID) {
+        JobProcesses processes = jobs.get(jobID);
+        if (processes == null) {
+            return false;
+        }
+        synchronized (processes) {
+            return processes.canceledAtMillis > 0;
+        }
+    }
+
+    private ProcessUsage processExited(String jobID, Process process) {
+        JobProcesses processes = jobs.get(jobID);
+        if (processes == null) {
+            return ProcessUsage.none();
+        }
+        synchronized (processes) {
+            for (Iterator<RunningProcess> it = processes.running.iterator(); it.hasNext(); ) {
+                RunningProcess running = it.next();
+                if (running.process == process) {
+                    it.remove();
+                    processes.exited(running);
+                    return new ProcessUsage(running.cpuMillis, running.peakRssKb);
+                }
+            }
+        }
+        return ProcessUsage.none(); // the sampler saw it exit first
+    }
+
+    /**
+     * Reads every running process's usage from /proc, and drops processes that have exited and canceled jobs nobody
+     * has come back for. /proc only has a process until it's reaped, so the last second or so of CPU time is missed.
+     */
+    private void sample() {
+        try {
+            long now = System.currentTimeMillis();
+            for (String jobID : jobs.keySet()) {
+                JobProcesses processes = jobs.get(jobID);
+                if (processes == null) {
+                    continue;
+                }
+                synchronized (processes) {
+                    for (Iterator<RunningProcess> it = processes.running.iterator(); it.hasNext(); ) {
+                        RunningProcess running = it.next();
+                        if (running.process.isAlive()) {
+                            running.sample();
+                        } else {
+                            it.remove();
+                            processes.exited(running);
+                        }
+                    }
+                    if (processes.running.isEmpty() && processes.canceledAtMillis > 0 &&
+                            now - processes.canceledAtMillis > CANCELED_RETENTION_MILLIS) {
+                        jobs.remove(jobID, processes);
+                        processes.forgotten = true;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // keep sampling, an exception would cancel the schedule
+        }
+    }
+
+    private static class JobProcesses {
+        final List<RunningProcess> running = new ArrayList<>();
+        long exitedCpuMillis = 0;
+        long exitedPeakRssKb = 0;
+        long canceledAtMillis = 0;
+        boolean forgotten = false;
+
+        void exited(RunningProcess process) {
+            exitedCpuMillis += process.cpuMillis;
+            exitedPeakRssKb = Math.max(exitedPeakRssKb, process.peakRssKb);
+        }
+    }
+
+    private static class RunningProcess {
+        final Process process;
+        final long pid;
+        long cpuMillis = 0;
+        long peakRssKb = 0;
+
+        RunningProcess(Process process) {
+            this.process = process;
+            this.pid = pidOf(process);
+        }
+
+        void sample() {
+            if (pid < 0) {
+                return;
+            }
+            try {
+                Path procDir = Paths.get("/proc", Long.toString(pid));
+                String stat = new String(Files.readAllBytes(procDir.resolve("stat")), Charsets.US_ASCII);
+                // the command name is in parentheses and may contain spaces, so count fields from after it
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]); // utime and stime
+                cpuMillis = ticks * CLOCK_TICK_MILLIS;
+                for (String line : Files.readAllLines(procDir.resolve("status"), Charsets.US_ASCII)) {
+                    if (line.startsWith("VmHWM:")) {
+                        peakRssKb = Long.parseLong(line.substring(6).replace("kB", "").trim());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // no /proc on this platform, or the process exited while we were reading it
+            }
+        }
+    }
+
+    /**
+     * {@code Process.pid()} only exists from Java 9, and before that the pid is a private field of UNIXProcess.
+     *
+     * @return the process ID, or -1 if it can't be found out
+     */
+    static long pidOf(Process process) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            try {
+                Field pid = process.getClass().getDeclaredField("pid");
+                pid.setAccessible(true);
+                return pid.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException e2) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.dacklabs.mp4splicer.workers;
+
+/**
+ * CPU time and peak memory used by a job's ffmpeg processes, as last sampled from /proc. Both stay at zero on
+ * platforms without /proc.
+ */
+public class ProcessUsage {
+    public final long cpuMillis;
+    public final long peakRssKb;
+
+    public ProcessUsage(long cpuMillis, long peakRssKb) {
+        this.cpuMillis = cpuMillis;
+        this.peakRssKb = peakRssKb;
+    }
+
+    public static ProcessUsage none() {
+        return new ProcessUsage(0, 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1fs CPU, %dMB peak RSS", cpuMillis / 1000.0, peakRssKb / 1024);
+    }
+}
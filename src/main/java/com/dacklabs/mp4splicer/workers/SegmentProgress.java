@@ -0,0 +1,124 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.model.EncodingStats;
+import com.dacklabs.mp4splicer.model.Job;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Combines the progress of a job's concurrently encoding segments into one set of stats for the whole job, so the
+ * job's progress bar and stats log look the same as for a single ffmpeg process.
+ */
+class SegmentProgress {
+
+    private static final ObjectMapper om = new ObjectMapper();
+
+    private final Job job;
+    private final StatsRegistry statsRegistry;
+    private final BufferedWriter statsLog;
+    private final EncodingStats[] latest;
+
+    SegmentProgress(Job job, int segmentCount, StatsRegistry statsRegistry) throws IOException {
+        this.job = job;
+        this.statsRegistry = statsRegistry;
+        this.statsLog = Files.newBufferedWriter(Paths.get(job.jobStatsFile()), Charsets.UTF_8,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                StandardOpenOption.WRITE);
+        this.latest = new EncodingStats[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            latest[i] = EncodingStats.none();
+        }
+    }
+
+    Consumer<EncodingStats> listenerFor(int segmentIndex) {
+        return stats -> update(segmentIndex, stats);
+    }
+
+    /**
+     * Counts a segment that was encoded before the job was interrupted.
+     */
+    synchronized void segmentAlreadyDone(int segmentIndex, int frames, Long durationMillis) {
+        String encodedTime = formatClock(durationMillis != null ? durationMillis / 1000.0 : 0);
+        update(segmentIndex, new EncodingStats(frames, 0, "0kB", encodedTime, "N/A", 0));
+    }
+
+    synchronized int framesFor(int segmentIndex) {
+        return latest[segmentIndex].frame;
+    }
+
+    /**
+     * Keeps a finished segment's frames in the total but stops counting its fps.
+     */
+    synchronized void segmentDone(int segmentIndex) {
+        EncodingStats last = latest[segmentIndex];
+        update(segmentIndex, new EncodingStats(last.frame, 0, last.sizeInKb, last.estimatedTimeLeft, last.bitrate,
+                                               last.droppedFrames));
+    }
+
+    synchronized void close() throws IOException {
+        statsLog.close();
+    }
+
+    private synchronized void update(int segmentIndex, EncodingStats stats) {
+        latest[segmentIndex] = stats;
+        int frames = 0;
+        double fps = 0;
+        long sizeInKb = 0;
+        double encodedSeconds = 0;
+        int droppedFrames = 0;
+        for (EncodingStats segmentStats : latest) {
+            frames += segmentStats.frame;
+            fps += segmentStats.fps;
+            sizeInKb += parseKb(segmentStats.sizeInKb);
+            encodedSeconds += parseClock(segmentStats.estimatedTimeLeft);
+            droppedFrames += segmentStats.droppedFrames;
+        }
+        EncodingStats combined = new EncodingStats(frames, Math.round(fps * 10) / 10.0, sizeInKb + "kB",
+                                                   formatClock(encodedSeconds), stats.bitrate, droppedFrames);
+        statsRegistry.update(job.jobID, combined);
+        try {
+            statsLog.write(om.writeValueAsString(combined));
+            statsLog.newLine();
+            statsLog.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long parseKb(String size) {
+        try {
+            return Long.parseLong(size.replace("kB", "").trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses ffmpeg's HH:MM:SS.ss timestamps, treating anything else as zero.
+     */
+    static double parseClock(String clock) {
+        String[] parts = clock.trim().split(":");
+        if (parts.length != 3) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(parts[0]) * 3600 + Integer.parseInt(parts[1]) * 60 + Double.parseDouble(parts[2]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String formatClock(double seconds) {
+        long hundredths = Math.round(seconds * 100);
+        return String.format("%02d:%02d:%02d.%02d", hundredths / 360000, (hundredths / 6000) % 60,
+                             (hundredths / 100) % 60, hundredths % 100);
+    }
+}
@@ -1,7 +1,10 @@
 $(document).ready(function(){
-  var inputs = [];
+  // remembered per directory, so paging through a big directory doesn't lose the files already added
+  var storageKey = 'inputs:' + $('input[name=directory]').val();
+  var inputs = JSON.parse(sessionStorage.getItem(storageKey) || '[]');
 
   function reDrawInputs() {
+    sessionStorage.setItem(storageKey, JSON.stringify(inputs));
     $('#inputs').empty();
     inputs.forEach(function(i){
       $('#inputs').append(makeInput(i));
@@ -35,4 +38,10 @@ $(document).ready(function(){
       reDrawInputs();
     };
   };
+
+  $('form[action="/create-job"]').submit(function() {
+    sessionStorage.removeItem(storageKey);
+  });
+
+  reDrawInputs();
 });
\ No newline at end of file
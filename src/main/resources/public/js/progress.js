@@ -0,0 +1,49 @@
+(function() {
+  var container = document.querySelector('[data-events]');
+  if (!container || !window.EventSource) {
+    return;
+  }
+
+  function progressMarkup(percent) {
+    var bar = '<div class="progress-bar progress-bar-striped progress-bar-success active" role="progressbar"' +
+      ' aria-valuenow="' + percent + '" aria-valuemin="0" aria-valuemax="100" style="width:' + percent + '%">';
+    if (percent > 30) {
+      bar += '<span>' + percent + '%</span>';
+    }
+    bar += '</div>';
+    if (percent < 30) {
+      bar += '<span style="font-size:12px;line-height:20px;float:right;margin-right:4px;color:#aaa">' + percent + '%</span>';
+    }
+    return bar;
+  }
+
+  function setText(row, selector, text) {
+    var elements = row.querySelectorAll(selector);
+    for (var i = 0; i < elements.length; i++) {
+      elements[i].textContent = text;
+    }
+  }
+
+  var source = new EventSource(container.getAttribute('data-events'));
+  source.addEventListener('progress', function(e) {
+    var event = JSON.parse(e.data);
+    var row = document.querySelector('[data-job-id="' + event.jobID + '"]');
+    if (!row) {
+      return;
+    }
+    if (event.deleted || event.status === 'DONE' || event.status === 'CANCELED' || event.status === 'FAILED') {
+      source.close();
+      location.reload(); // finished jobs are rendered differently, let the server draw them
+      return;
+    }
+    setText(row, '.job-status', event.queuePosition ? 'Queued (#' + event.queuePosition + ')' : event.statusName);
+    setText(row, '.job-percent', event.percentComplete + '%');
+    setText(row, '.job-time-left', event.estimatedTimeLeft);
+    setText(row, '.job-bitrate', event.bitrate);
+    setText(row, '.job-fps', event.fps);
+    var bars = row.querySelectorAll('.progress');
+    for (var i = 0; i < bars.length; i++) {
+      bars[i].innerHTML = progressMarkup(event.percentComplete);
+    }
+  });
+})();
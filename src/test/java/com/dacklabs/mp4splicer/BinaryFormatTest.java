@@ -0,0 +1,63 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.EncodingStatus;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.dacklabs.mp4splicer.model.JobStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinaryFormatTest {
+
+    @Test
+    public void jobsRoundTrip() throws IOException {
+        Job job = Job.create("job", "Wimbledon", "/recordings", "final.mp4",
+                             Collections.singletonList(InputFile.create("/recordings/final.wtv")), 60, 3600,
+                             EncodingMode.COPY_VIDEO, EncodeProfile.ARCHIVE, JobPriority.HIGH, 4).encoding();
+
+        Job read = BinaryFormat.decodeJob(new RecordReader(BinaryFormat.encode(job).toByteArray()));
+
+        assertEquals(job.jobID, read.jobID);
+        assertEquals(job.status, read.status);
+        assertEquals(job.mode, read.mode);
+        assertEquals(job.profile, read.profile);
+        assertEquals(job.priority, read.priority);
+        assertEquals(job.outputPath.encodingStatus, read.outputPath.encodingStatus);
+        assertEquals(job.endTrimTimeSeconds, read.endTrimTimeSeconds);
+        assertEquals(job.segmentCount, read.segmentCount);
+    }
+
+    /**
+     * A job saved by a newer version, with constants this one has never heard of, still reads. Its status can't be
+     * carried on from, so it's read as failed and never run again.
+     */
+    @Test
+    public void unknownEnumConstantsReadAsDefaults() throws IOException {
+        RecordWriter w = new RecordWriter();
+        w.writeString(1, "job");
+        int output = w.startRecord(4);
+        w.writeString(1, "final.mp4");
+        w.writeString(2, "UPLOADING");
+        w.endRecord(output);
+        w.writeString(7, "PAUSED");
+        w.writeString(12, "URGENT");
+        w.writeString(16, "HARDWARE_ENCODE");
+        w.writeString(18, "LOSSLESS");
+
+        Job read = BinaryFormat.decodeJob(new RecordReader(w.toByteArray()));
+
+        assertEquals("job", read.jobID);
+        assertEquals(JobStatus.FAILED, read.status);
+        assertEquals(JobPriority.NORMAL, read.priority);
+        assertEquals(EncodingMode.REENCODE, read.mode);
+        assertEquals(EncodeProfile.BALANCED, read.profile);
+        assertEquals(EncodingStatus.WAITING, read.outputPath.encodingStatus);
+    }
+}
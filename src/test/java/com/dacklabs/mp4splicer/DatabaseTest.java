@@ -0,0 +1,76 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.dacklabs.mp4splicer.model.JobStatus;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Saves jobs in another JVM that then dies without closing the database, the way a power cut or kill -9 would.
+     * Finished jobs are committed as they're saved so must all be there; the last save, of an unfinished job, may or
+     * may not have made it.
+     */
+    @Test
+    public void finishedJobsSurviveACrash() throws Exception {
+        String databasePath = new File(tmp.getRoot(), "job-database").getPath();
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        Process crasher = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                             SaveAndCrash.class.getName(), databasePath).inheritIO().start();
+        assertTrue(crasher.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(SaveAndCrash.EXIT_CODE, crasher.exitValue());
+
+        Database db = new Database(databasePath);
+        try {
+            assertEquals(JobStatus.DONE, db.getJob("done").status);
+            assertEquals(JobStatus.FAILED, db.getJob("failed").status);
+            assertEquals("ffmpeg exited with 1", db.getJob("failed").error);
+            assertEquals(JobStatus.CANCELED, db.getJob("canceled").status);
+            JobStatus running = db.getJob("running").status;
+            assertTrue(Arrays.asList(JobStatus.CREATED, JobStatus.ENCODING).contains(running));
+            assertEquals(1, db.countJobs(Collections.singleton(running))); // the index went with the job
+        } finally {
+            db.close();
+        }
+    }
+
+    public static class SaveAndCrash {
+        static final int EXIT_CODE = 3;
+
+        public static void main(String[] args) {
+            Database db = new Database(args[0]);
+            for (String jobID : Arrays.asList("done", "failed", "canceled", "running")) {
+                db.saveJob(job(jobID));
+            }
+            db.commit();
+            db.saveJob(db.getJob("done").done(null));
+            db.saveJob(db.getJob("failed").failed("ffmpeg exited with 1"));
+            db.saveJob(db.getJob("canceled").cancel());
+            db.saveJob(db.getJob("running").encoding());
+            Runtime.getRuntime().halt(EXIT_CODE); // no shutdown hooks, no close
+        }
+
+        private static Job job(String jobID) {
+            return Job.create(jobID, jobID, "/recordings", jobID + ".mp4",
+                              Collections.singletonList(InputFile.create("/recordings/" + jobID + ".wtv")), null, null,
+                              EncodingMode.REENCODE, EncodeProfile.BALANCED, JobPriority.NORMAL, 1);
+        }
+    }
+}
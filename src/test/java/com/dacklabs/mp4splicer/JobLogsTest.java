@@ -0,0 +1,95 @@
+package com.dacklabs.mp4splicer;
+
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.google.common.base.Charsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobLogsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final List<Path> logs = new ArrayList<>();
+    private Database db;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(Paths.get("logs")); // jobs log to the working directory
+        db = new Database(new File(tmp.getRoot(), "job-database").getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        for (Path log : logs) {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test
+    public void retentionDeletesEveryLogOfOldFinishedJobs() throws IOException {
+        Job finished = db.saveJob(job().done(null));
+        Path stdErr = log(finished.jobStdErrFile() + ".gz", 31);
+        Path segment = log(finished.segmentStdErrFile(0), 31);
+        Path compressedSegment = log(finished.segmentStdErrFile(1) + ".gz", 31);
+        Path stats = log(finished.jobStatsFile(), 31);
+        Path recent = log(finished.segmentStdErrFile(2) + ".gz", 1);
+
+        new JobLogs(db, 30, 0).sweep();
+
+        assertFalse(Files.exists(stdErr));
+        assertFalse(Files.exists(segment));
+        assertFalse(Files.exists(compressedSegment));
+        assertFalse(Files.exists(stats));
+        assertTrue(Files.exists(recent));
+    }
+
+    @Test
+    public void unfinishedJobsKeepTheirLogs() throws IOException {
+        Job running = db.saveJob(job().encoding());
+        Path segment = log(running.segmentStdErrFile(0), 31);
+
+        new JobLogs(db, 30, 0).sweep();
+
+        assertTrue(Files.exists(segment));
+    }
+
+    private Job job() {
+        String jobID = UUID.randomUUID().toString();
+        return Job.create(jobID, "test", "/recordings", jobID + ".mp4",
+                          Collections.singletonList(InputFile.create("/recordings/" + jobID + ".wtv")), null, null,
+                          EncodingMode.REENCODE, EncodeProfile.BALANCED, JobPriority.NORMAL, 1);
+    }
+
+    private Path log(String name, int daysOld) throws IOException {
+        Path log = Paths.get(name);
+        logs.add(log);
+        Files.write(log, "frame=1\n".getBytes(Charsets.UTF_8));
+        long modified = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(daysOld);
+        Files.setLastModifiedTime(log, FileTime.fromMillis(modified));
+        return log;
+    }
+}
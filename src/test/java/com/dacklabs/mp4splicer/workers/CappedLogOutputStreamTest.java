@@ -0,0 +1,56 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CappedLogOutputStreamTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void keepsTheHeadAndTheTailFromALineBreak() throws IOException {
+        Path log = tmp.newFile().toPath();
+        try (CappedLogOutputStream out = new CappedLogOutputStream(log, 10, 40)) {
+            out.write("head line\n".getBytes(Charsets.UTF_8));
+            for (int i = 0; i < 20; i++) {
+                out.write(("line " + i + "\n").getBytes(Charsets.UTF_8));
+            }
+        }
+
+        String written = new String(Files.readAllBytes(log), Charsets.UTF_8);
+        assertTrue(written, written.startsWith("head line\n"));
+        assertTrue(written, written.contains(" bytes of log dropped ...]"));
+        assertTrue(written, written.endsWith("\nline 19\n"));
+        assertTrue(written, written.contains("dropped ...]" + System.lineSeparator() + "line "));
+    }
+
+    /**
+     * ffmpeg's progress is all one line of carriage returns until it finishes, and sometimes not even those.
+     */
+    @Test
+    public void keepsTheEndOfALineLongerThanTheTail() throws IOException {
+        Path log = tmp.newFile().toPath();
+        try (CappedLogOutputStream out = new CappedLogOutputStream(log, 10, 40)) {
+            out.write("head line\n".getBytes(Charsets.UTF_8));
+            out.write(Strings.repeat("x", 200).getBytes(Charsets.UTF_8));
+            out.write("the end".getBytes(Charsets.UTF_8));
+        }
+
+        String written = new String(Files.readAllBytes(log), Charsets.UTF_8);
+        assertTrue(written, written.startsWith("head line\n"));
+        assertTrue(written, written.endsWith("xxxthe end"));
+        String tail = written.substring(written.lastIndexOf(System.lineSeparator()) + System.lineSeparator().length());
+        assertEquals(40, tail.length());
+    }
+}
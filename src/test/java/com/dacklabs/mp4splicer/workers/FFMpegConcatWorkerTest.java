@@ -0,0 +1,119 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.Database;
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.ffmpeg.InputProber;
+import com.dacklabs.mp4splicer.ffmpeg.ProbeCache;
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.dacklabs.mp4splicer.model.JobStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FFMpegConcatWorkerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeFFMpeg ffmpeg;
+    private Database db;
+    private InputProber inputProber;
+    private String jobID;
+    private final List<Job> reencoded = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(Paths.get("logs")); // jobs log to the working directory
+        ffmpeg = new FakeFFMpeg(tmp.newFolder("bin").toPath(), 5);
+        db = new Database(new File(tmp.getRoot(), "job-database").getPath());
+        inputProber = new InputProber(new ProbeCache(db, ffmpeg.path()), 4, 2);
+        jobID = UUID.randomUUID().toString();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        db.close();
+        for (File log : new File("logs").listFiles((dir, name) -> name.startsWith("job-" + jobID))) {
+            Files.delete(log.toPath());
+        }
+    }
+
+    /**
+     * Re-encodes keep the first two minutes of the last input, so copies have to as well: nine minutes of the first
+     * ten minute recording and two of the second.
+     */
+    @Test
+    public void endTrimKeepsThatMuchOfTheLastInput() throws Exception {
+        run(createJob(EncodingMode.COPY, 60, 120, "first.wtv", "second.wtv"));
+
+        assertEquals(JobStatus.DONE, db.getJob(jobID).status);
+        assertTrue(ffmpeg.encodes().get(0), ffmpeg.encodes().get(0).contains(" -ss 60 -t 660.000 "));
+    }
+
+    @Test
+    public void endTrimOfASingleInputCountsFromTheStartTrim() throws Exception {
+        run(createJob(EncodingMode.COPY, 60, 120, "only.wtv"));
+
+        assertTrue(ffmpeg.encodes().get(0), ffmpeg.encodes().get(0).contains(" -ss 60 -t 120.000 "));
+    }
+
+    @Test
+    public void automaticJobOfMatchingRecordingsIsCopied() throws Exception {
+        run(createJob(EncodingMode.AUTOMATIC, null, null, "first.wtv", "second.wtv"));
+
+        Job job = db.getJob(jobID);
+        assertEquals(JobStatus.DONE, job.status);
+        assertEquals(EncodingMode.COPY, job.mode);
+        assertTrue(ffmpeg.encodes().get(0), ffmpeg.encodes().get(0).contains(" -c copy "));
+        assertTrue(reencoded.isEmpty());
+    }
+
+    @Test
+    public void automaticJobThatCantBeCopiedIsPassedOnToReencode() throws Exception {
+        run(createJob(EncodingMode.AUTOMATIC, null, null, "mpeg2.wtv", "h264.wtv"));
+
+        Job job = db.getJob(jobID);
+        assertEquals(JobStatus.CREATED, job.status);
+        assertEquals(EncodingMode.REENCODE, job.mode);
+        assertEquals(1, reencoded.size());
+        assertEquals(EncodingMode.REENCODE, reencoded.get(0).mode);
+        assertEquals(2, reencoded.get(0).inputPaths.stream().filter(i -> i.stats.inputNumber >= 0).count());
+        assertTrue(ffmpeg.encodes().isEmpty());
+    }
+
+    private void run(Job job) {
+        new FFMpegConcatWorker(db, new ProcessSupervisor(), inputProber, new StatsRegistry(), new CpuBudget(0, false),
+                               job.jobID, tmp.getRoot().getPath(), ffmpeg.path(), reencoded::add).run();
+    }
+
+    private Job createJob(EncodingMode mode, Integer startTrim, Integer endTrim, String... inputNames)
+            throws IOException {
+        List<InputFile> inputs = new ArrayList<>();
+        for (String inputName : inputNames) {
+            Path input = tmp.newFile(inputName).toPath();
+            Files.write(input, new byte[1024]);
+            inputs.add(InputFile.create(input.toString()));
+        }
+        Job job = Job.create(jobID, "test", tmp.getRoot().getPath(), jobID + ".mp4", inputs, startTrim, endTrim,
+                             mode, EncodeProfile.BALANCED, JobPriority.NORMAL, 1);
+        return db.saveJob(job);
+    }
+}
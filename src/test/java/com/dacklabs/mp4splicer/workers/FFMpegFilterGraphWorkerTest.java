@@ -0,0 +1,229 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.Database;
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.ffmpeg.InputProber;
+import com.dacklabs.mp4splicer.ffmpeg.ProbeCache;
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import com.dacklabs.mp4splicer.model.JobStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FFMpegFilterGraphWorkerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final List<String> jobIDs = new ArrayList<>();
+    private FakeFFMpeg ffmpeg;
+    private Database db;
+    private ProcessSupervisor processSupervisor;
+    private InputProber inputProber;
+    private StatsRegistry statsRegistry;
+    private CpuBudget cpuBudget = new CpuBudget(0, false);
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(Paths.get("logs")); // jobs log to the working directory
+        ffmpeg = new FakeFFMpeg(tmp.newFolder("bin").toPath(), 20);
+        startServer();
+    }
+
+    private void startServer() {
+        db = new Database(new File(tmp.getRoot(), "job-database").getPath());
+        processSupervisor = new ProcessSupervisor();
+        inputProber = new InputProber(new ProbeCache(db, ffmpeg.path()), 4, 2);
+        statsRegistry = new StatsRegistry();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ffmpeg.release();
+        db.close();
+        for (String jobID : jobIDs) {
+            for (File log : new File("logs").listFiles((dir, name) -> name.startsWith("job-" + jobID))) {
+                Files.delete(log.toPath());
+            }
+        }
+    }
+
+    @Test
+    public void encodesTheJob() throws Exception {
+        Job job = createJob();
+        worker(job, 0).run();
+
+        assertEquals(JobStatus.DONE, db.getJob(job.jobID).status);
+        assertEquals(1, ffmpeg.encodes().size());
+    }
+
+    /**
+     * Stops the server while the third of five checkpointed segments is encoding, the way a shutdown interrupts the
+     * workers, then runs the job again.
+     */
+    @Test
+    public void restartedJobOnlyEncodesTheSegmentsNotCheckpointed() throws Exception {
+        Job job = createJob(); // ten minutes, so five segments of two
+        ffmpeg.hangOn("-ss 240\\.000 ");
+        Thread worker = new Thread(worker(job, TimeUnit.MINUTES.toMillis(2)));
+        worker.start();
+        ffmpeg.awaitHung();
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals(2, db.getJob(job.jobID).completedSegments.size());
+        db.close();
+        ffmpeg.release();
+
+        startServer();
+        int callsBefore = ffmpeg.encodes().size();
+        worker(job, TimeUnit.MINUTES.toMillis(2)).run();
+
+        List<String> afterRestart = ffmpeg.encodes().subList(callsBefore, ffmpeg.encodes().size());
+        assertEquals(4, afterRestart.size());
+        assertTrue(afterRestart.get(0).startsWith("-y -ss 240.000 "));
+        assertTrue(afterRestart.get(1).startsWith("-y -ss 360.000 "));
+        assertTrue(afterRestart.get(2).startsWith("-y -ss 480.000 "));
+        assertTrue(afterRestart.get(3).startsWith("-y -f concat "));
+        assertEquals(JobStatus.DONE, db.getJob(job.jobID).status);
+    }
+
+    /**
+     * Four cores go to whichever encodes are running when each launches: all of them to the first, then half each
+     * once a second starts alongside it, then all of them again once both have finished.
+     */
+    @Test
+    public void encodesShareTheCoresBetweenThem() throws Exception {
+        cpuBudget = new CpuBudget(4, false);
+        Job first = createJob(2);
+        Job second = createJob(2);
+        Job third = createJob(2);
+        ffmpeg.hangOn(first.jobID);
+        Thread firstWorker = new Thread(worker(first, 0));
+        firstWorker.start();
+        ffmpeg.awaitHung();
+        worker(second, 0).run();
+        assertEquals(4, cpuBudget.assignedThreads()); // the first job, launched on its own
+        ffmpeg.release();
+        firstWorker.join(TimeUnit.SECONDS.toMillis(10));
+        worker(third, 0).run();
+
+        assertThreads(4, first);
+        assertThreads(2, second);
+        assertThreads(4, third);
+        assertEquals(0, cpuBudget.assignedThreads());
+    }
+
+    /**
+     * The filter graph's threads go first, before the inputs, and the encoder's last, just before the output.
+     */
+    private void assertThreads(int threads, Job job) throws IOException {
+        String encode = ffmpeg.encodes().stream().filter(call -> call.contains(job.jobID)).findFirst().get();
+        assertTrue(encode, encode.startsWith("-filter_complex_threads " + threads + " -y "));
+        String output = "\"" + Paths.get(job.directory, job.outputPath.path) + "\"";
+        assertTrue(encode, encode.endsWith(" -threads " + threads + " " + output));
+    }
+
+    @Test
+    public void cancelWhileProbingIsNotOverwrittenByTheProbedInputs() throws Exception {
+        Job job = createJob();
+        ffmpeg.hangOn("^-i ");
+        Thread worker = new Thread(worker(job, 0));
+        worker.start();
+        ffmpeg.awaitHung();
+
+        cancel(job.jobID);
+        ffmpeg.release();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(JobStatus.CANCELED, db.getJob(job.jobID).status);
+        assertEquals(Collections.emptyList(), ffmpeg.encodes());
+    }
+
+    @Test
+    public void cancelWhileEncodingLeavesTheJobCanceled() throws Exception {
+        Job job = createJob();
+        ffmpeg.hangOn("^-y ");
+        Thread worker = new Thread(worker(job, 0));
+        worker.start();
+        ffmpeg.awaitHung();
+
+        cancel(job.jobID);
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(JobStatus.CANCELED, db.getJob(job.jobID).status);
+    }
+
+    /**
+     * Cancels jobs at random points while they probe, launch ffmpeg and encode, the way the cancel route does.
+     */
+    @Test
+    public void canceledJobsStayCanceledWhereverTheWorkerIs() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        Random random = new Random(42);
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            Job job = createJob();
+            jobs.add(job);
+            workers.execute(worker(job, 0));
+            Thread.sleep(random.nextInt(40));
+            cancel(job.jobID);
+        }
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(30, TimeUnit.SECONDS));
+
+        for (Job job : jobs) {
+            assertEquals(JobStatus.CANCELED, db.getJob(job.jobID).status);
+        }
+    }
+
+    private void cancel(String jobID) {
+        db.updateUnfinishedJob(jobID, Job::cancel);
+        processSupervisor.cancel(jobID);
+    }
+
+    private Job createJob() throws IOException {
+        return createJob(1);
+    }
+
+    private Job createJob(int inputCount) throws IOException {
+        List<InputFile> inputs = new ArrayList<>();
+        for (int i = 0; i < inputCount; i++) {
+            Path input = tmp.newFile().toPath();
+            Files.write(input, new byte[1024]);
+            inputs.add(InputFile.create(input.toString()));
+        }
+        String jobID = UUID.randomUUID().toString();
+        jobIDs.add(jobID);
+        Job job = Job.create(jobID, "test", tmp.getRoot().getPath(), jobID + ".mp4", inputs, null, null,
+                             EncodingMode.REENCODE, EncodeProfile.FASTEST, JobPriority.NORMAL, 1);
+        return db.saveJob(job);
+    }
+
+    private FFMpegFilterGraphWorker worker(Job job, long checkpointMillis) {
+        return new FFMpegFilterGraphWorker(db, processSupervisor, inputProber, statsRegistry, cpuBudget,
+                                           job.jobID, tmp.getRoot().getPath(), ffmpeg.path(), checkpointMillis);
+    }
+}
@@ -0,0 +1,118 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A shell script standing in for ffmpeg, so workers can be run end to end without it. Called as {@code ffmpeg -i file}
+ * it prints a ten minute 1080p recording's streams, in MPEG-2 unless the file's name has h264 in it; otherwise it
+ * reports some progress and writes its last argument. Every call's arguments are recorded, and a call can be held until
+ * the test lets it go with {@link #hangOn}.
+ */
+class FakeFFMpeg {
+
+    private static final String SCRIPT = String.join("\n",
+            "#!/bin/bash",
+            "dir=\"$(dirname \"$0\")\"",
+            "echo \"$*\" >> \"$dir/calls.log\"",
+            "if [ -f \"$dir/hang-on\" ] && [[ \"$*\" =~ $(cat \"$dir/hang-on\") ]]; then",
+            "  echo $$ > \"$dir/hung\"",
+            "  while [ -f \"$dir/hang-on\" ]; do sleep 0.02; done",
+            "fi",
+            "if [ \"$#\" -eq 2 ] && [ \"$1\" = \"-i\" ]; then",
+            "  video='mpeg2video (Main)'; [[ \"$2\" == *h264* ]] && video='h264 (High)'",
+            "  cat >&2 <<PROBE",
+            "Input #0, wtv, from 'recording.wtv':",
+            "  Metadata:",
+            "    title           : Recording",
+            "  Duration: 00:10:00.00, start: 0.000000, bitrate: 12000 kb/s",
+            "    Stream #0:0[0x1]: Audio: ac3, 48000 Hz, stereo, fltp, 384 kb/s",
+            "    Stream #0:1[0x2]: Video: $video, yuv420p(tv), 1920x1080 [SAR 1:1 DAR 16:9], 29.97 fps, " +
+                    "29.97 tbr, 10000k tbn, 59.94 tbc",
+            "At least one output file must be specified",
+            "PROBE",
+            "  exit 1",
+            "fi",
+            "out=\"${@: -1}\"; out=\"${out%\\\"}\"; out=\"${out#\\\"}\"",
+            "for i in $(seq 1 %FRAMES%); do",
+            "  printf 'frame=%5d fps= 30 q=28.0 size=   %dkB time=00:00:%02d.00 bitrate=1000.0kbits/s    \\r' " +
+                    "$((i*10)) $((i*5)) $((i%60)) >&2",
+            "  sleep %SLEEP%",
+            "done",
+            "echo >&2",
+            "echo \"fake output\" > \"$out\"",
+            "");
+
+    private final Path dir;
+    private final Path script;
+
+    /**
+     * @param progressLines how many progress lines each encode prints, a fiftieth of a second apart
+     */
+    FakeFFMpeg(Path dir, int progressLines) throws IOException {
+        this.dir = dir;
+        this.script = dir.resolve("ffmpeg");
+        String source = SCRIPT.replace("%FRAMES%", Integer.toString(progressLines)).replace("%SLEEP%", "0.02");
+        Files.write(script, source.getBytes(Charsets.UTF_8));
+        if (!script.toFile().setExecutable(true)) {
+            throw new IOException("Couldn't make " + script + " executable");
+        }
+    }
+
+    String path() {
+        return script.toString();
+    }
+
+    /**
+     * @return the arguments of every call made so far, in order
+     */
+    List<String> calls() throws IOException {
+        Path calls = dir.resolve("calls.log");
+        return Files.exists(calls) ? Files.readAllLines(calls, Charsets.UTF_8) : new ArrayList<>();
+    }
+
+    /**
+     * @return the calls that encoded something, rather than probing an input
+     */
+    List<String> encodes() throws IOException {
+        List<String> encodes = new ArrayList<>();
+        for (String call : calls()) {
+            if (!call.startsWith("-i ")) {
+                encodes.add(call);
+            }
+        }
+        return encodes;
+    }
+
+    /**
+     * Holds every call whose arguments match the bash regex until {@link #release} is called. If the process is
+     * killed meanwhile it simply dies, like ffmpeg would.
+     */
+    void hangOn(String argumentsRegex) throws IOException {
+        Files.deleteIfExists(dir.resolve("hung"));
+        Files.write(dir.resolve("hang-on"), argumentsRegex.getBytes(Charsets.UTF_8));
+    }
+
+    void release() throws IOException {
+        Files.deleteIfExists(dir.resolve("hang-on"));
+    }
+
+    /**
+     * Waits for a call to be held by {@link #hangOn}.
+     */
+    void awaitHung() throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Files.exists(dir.resolve("hung"))) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("ffmpeg was never called with arguments matching the hang, only " + calls());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
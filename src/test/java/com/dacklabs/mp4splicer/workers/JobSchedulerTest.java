@@ -0,0 +1,77 @@
+package com.dacklabs.mp4splicer.workers;
+
+import com.dacklabs.mp4splicer.StatsRegistry;
+import com.dacklabs.mp4splicer.model.EncodeProfile;
+import com.dacklabs.mp4splicer.model.EncodingMode;
+import com.dacklabs.mp4splicer.model.InputFile;
+import com.dacklabs.mp4splicer.model.Job;
+import com.dacklabs.mp4splicer.model.JobPriority;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobSchedulerTest {
+
+    /**
+     * An automatic job probes in the stream copy pool, and if it turns out to need re-encoding it moves to the encode
+     * pool once its first worker has finished with it.
+     */
+    @Test
+    public void requeuedJobRunsInItsNewPoolAfterItsWorkerFinishes() throws Exception {
+        JobScheduler scheduler = new JobScheduler(1, 1, new StatsRegistry(), false);
+        Job automatic = job(EncodingMode.AUTOMATIC);
+        AtomicBoolean probed = new AtomicBoolean();
+        AtomicBoolean firstWorkerStillRunning = new AtomicBoolean();
+        AtomicInteger encodesRunning = new AtomicInteger();
+        CountDownLatch reencoded = new CountDownLatch(1);
+
+        scheduler.submit(automatic, () -> {
+            scheduler.requeue(automatic.updateMode(EncodingMode.REENCODE), () -> {
+                firstWorkerStillRunning.set(!probed.get());
+                encodesRunning.set(scheduler.runningCount(JobScheduler.Pool.ENCODE));
+                reencoded.countDown();
+            });
+            scheduler.submit(automatic, () -> {
+                throw new AssertionError("submitted twice");
+            });
+            probed.set(true);
+        });
+
+        assertTrue(reencoded.await(10, TimeUnit.SECONDS));
+        assertFalse(firstWorkerStillRunning.get());
+        assertEquals(1, encodesRunning.get());
+    }
+
+    @Test
+    public void removingAJobDropsItsRequeue() throws Exception {
+        JobScheduler scheduler = new JobScheduler(1, 1, new StatsRegistry(), false);
+        Job automatic = job(EncodingMode.AUTOMATIC);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean reencoded = new AtomicBoolean();
+
+        scheduler.submit(automatic, () -> {
+            scheduler.requeue(automatic.updateMode(EncodingMode.REENCODE), () -> reencoded.set(true));
+            scheduler.remove(automatic.jobID); // canceled while it probed
+            finished.countDown();
+        });
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertFalse(reencoded.get());
+        assertEquals(0, scheduler.queueDepth(JobScheduler.Pool.ENCODE));
+    }
+
+    private static Job job(EncodingMode mode) {
+        return Job.create("job", "test", "/recordings", "job.mp4",
+                          Collections.singletonList(InputFile.create("/recordings/job.wtv")), null, null, mode,
+                          EncodeProfile.BALANCED, JobPriority.NORMAL, 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.dacklabs.mp4splicer.workers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessSupervisorTest {
+
+    /**
+     * Launches processes for a job from several threads at the same moment it's canceled. Each launch must either be
+     * refused or be stopped by the cancel, never left running.
+     */
+    @Test
+    public void noProcessOutlivesACancelThatRacesItsLaunch() throws Exception {
+        ProcessSupervisor supervisor = new ProcessSupervisor();
+        ExecutorService launchers = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 20; round++) {
+                String jobID = "job-" + round;
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<Process>> launches = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    launches.add(launchers.submit(() -> {
+                        go.await();
+                        return supervisor.start(jobID, new ProcessBuilder("sleep", "60"));
+                    }));
+                }
+                go.countDown();
+                supervisor.cancel(jobID);
+
+                for (Future<Process> launch : launches) {
+                    try {
+                        assertTrue(launch.get().waitFor(10, TimeUnit.SECONDS));
+                    } catch (ExecutionException e) {
+                        assertTrue(e.getCause() instanceof CancellationException);
+                    }
+                }
+            }
+        } finally {
+            launchers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void canceledJobCantStartAnything() throws Exception {
+        ProcessSupervisor supervisor = new ProcessSupervisor();
+        supervisor.cancel("job");
+        try {
+            supervisor.start("job", new ProcessBuilder("true"));
+        } catch (CancellationException e) {
+            assertEquals(0, supervisor.runningProcessCount());
+            return;
+        }
+        throw new AssertionError("started a process for a canceled job");
+    }
+
+    @Test
+    public void waitingOnACanceledJobsProcessIsCanceledNotAnExitCode() throws Exception {
+        ProcessSupervisor supervisor = new ProcessSupervisor();
+        Process process = supervisor.start("job", new ProcessBuilder("sleep", "60"));
+        supervisor.cancel("job");
+        try {
+            int exitValue = supervisor.waitFor("job", process);
+            throw new AssertionError("canceled process exited with " + exitValue);
+        } catch (CancellationException e) {
+            assertEquals(0, supervisor.runningProcessCount());
+        }
+    }
+}